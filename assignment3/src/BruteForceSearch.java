@@ -1,3 +1,5 @@
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -10,11 +12,33 @@ import java.util.Set;
  *
  */
 public class BruteForceSearch extends SimilaritySearcher{
-  private int tp; // Total positives
-  private int tn; // Total negatives
+	static final int BLOCK_SIZE = 256;
+
+	ObjectSets objectSets; // if not null, the sets are read from here instead of from the objectMapping
 
 	public BruteForceSearch(Map<Integer,Set<Integer>> objectMapping){
+		this(objectMapping, null);
+	}
+
+	/**
+	 * Search with the Jaccard similarities computed on the stored sets (e.g. SortedArraySets), without building a Set
+	 * per comparison.
+	 * @param objectSets the sets of the objects of the objectMapping, or null
+	 */
+	public BruteForceSearch(Map<Integer,Set<Integer>> objectMapping, ObjectSets objectSets){
 		super(objectMapping);
+		this.objectSets = objectSets;
+	}
+
+	/**
+	 * The set of obj as a sorted array.
+	 */
+	private int[] sortedArray(int obj){
+		return objectSets != null ? objectSets.get(obj) : toSortedArray(objectMapping.get(obj));
+	}
+
+	private double jaccard(int obj1, int obj2){
+		return objectSets != null ? objectSets.jaccard(obj1, obj2) : jaccardSimilarity(objectMapping.get(obj1),objectMapping.get(obj2));
 	}
 	
 	/**
@@ -24,22 +48,102 @@ public class BruteForceSearch extends SimilaritySearcher{
 	 */
 	@Override
 	public Set<SimilarPair> getSimilarPairsAboveThreshold(double threshold) {
-		Set<SimilarPair> cands = new HashSet<SimilarPair>();
-		for (Integer obj1 : objectMapping.keySet()){
-			for (Integer obj2 : objectMapping.keySet()){
-				if (obj1 < obj2){
-					double sim = jaccardSimilarity(objectMapping.get(obj1),objectMapping.get(obj2));
-					if (sim > threshold){
-						cands.add(new SimilarPair(obj1, obj2, sim));
+		final Set<SimilarPair> cands = new HashSet<SimilarPair>();
+		getSimilarPairsAboveThreshold(threshold, new PairSink() {
+			@Override
+			public void accept(int id1, int id2, double similarity) {
+				cands.add(new SimilarPair(id1, id2, similarity));
+			}
+		});
+		return cands;
+	}
+
+	/**
+	 * Stream pairs of objects with similarity above threshold to a sink.
+	 * The objects are compared by id 0..n-1, on objectSets if given, without iterating over the objectMapping.
+	 * @param threshold the similarity threshold
+	 * @param sink receives the pairs
+	 */
+	@Override
+	public void getSimilarPairsAboveThreshold(double threshold, PairSink sink) {
+		int tp = 0; // Total positives
+		int tn = 0; // Total negatives
+		int numObjects = objectMapping.size();
+		for (int obj1 = 0; obj1 < numObjects; obj1++){
+			for (int obj2 = obj1 + 1; obj2 < numObjects; obj2++){
+				double sim = jaccard(obj1, obj2);
+				if (sim > threshold){
+					sink.accept(obj1, obj2, sim);
             tp++;
-					} else {
+				} else {
             tn++;
           }
-        }
 			}
 		}
-                System.out.println("Total Positives: " + tp + "   Total Negatives: " + tn);
-		return cands;
+                System.err.println("Total Positives: " + tp + "   Total Negatives: " + tn);
+	}
+
+	/**
+	 * Anytime search for the pairs of objects with similarity above threshold.
+	 * The Jaccard similarity of two sets is at most the size of the smaller set divided by the size of the larger one.
+	 * The objects are sorted on set size, and pair (i, i+d) of the sorted order is compared for d = 1, 2, ..., so the
+	 * pairs with the highest bound come first. Once the bound of (i, i+d) is not above the threshold, neither are the
+	 * bounds of the later pairs of i, and these are ruled out without comparing them.
+	 * The covered candidates are the compared and ruled out pairs, out of all n(n-1)/2 pairs.
+	 */
+	@Override
+	public void getSimilarPairsAboveThreshold(double threshold, PairSink sink, SearchBudget budget) {
+		int numObjects = objectMapping.size();
+		long[] bySize = new long[numObjects];
+		int[][] byObject = new int[numObjects][];
+		for (int obj = 0; obj < numObjects; obj++){
+			byObject[obj] = sortedArray(obj);
+			bySize[obj] = (long) byObject[obj].length << 32 | obj;
+		}
+		Arrays.sort(bySize);
+		int[] objects = new int[numObjects];
+		int[][] sets = new int[numObjects][];
+		for (int i = 0; i < numObjects; i++){
+			objects[i] = (int) bySize[i];
+			sets[i] = byObject[objects[i]];
+		}
+
+		long total = (long) numObjects * (numObjects - 1) / 2;
+		long covered = 0;
+		budget.progress(covered, total);
+		// the positions i in the sorted order of which pair (i, i+d) is not ruled out yet
+		int[] active = new int[Math.max(0, numObjects - 1)];
+		int numActive = active.length;
+		for (int i = 0; i < numActive; i++){
+			active[i] = i;
+		}
+		for (int d = 1; numActive > 0; d++){
+			int kept = 0;
+			for (int a = 0; a < numActive; a++){
+				if (a % 256 == 0 && budget.isExhausted()){
+					budget.progress(covered, total);
+					return;
+				}
+				int i = active[a];
+				int j = i + d;
+				if (j >= numObjects){
+					continue; // all pairs of i are covered
+				}
+				if (threshold >= 0 && sets[i].length <= threshold * sets[j].length){
+					covered += numObjects - j; // (i, j) and the later pairs of i
+					continue;
+				}
+				double sim = jaccardSimilarity(sets[i], sets[j]);
+				if (sim > threshold){
+					sink.accept(Math.min(objects[i], objects[j]), Math.max(objects[i], objects[j]), sim);
+				}
+				covered++;
+				active[kept++] = i;
+			}
+			numActive = kept;
+			budget.progress(covered, total);
+		}
+		budget.finish();
 	}
 
 	/**
@@ -52,13 +156,74 @@ public class BruteForceSearch extends SimilaritySearcher{
 	public Set<Neighbor> getNeighborsAboveThreshold(int objID, double thr) {
 		Set<Neighbor> candidateNeighbors = new HashSet<Neighbor>();
 		for (int otherObj = 0; otherObj < objectMapping.size(); otherObj++){
-			double sim = jaccardSimilarity(objectMapping.get(objID),objectMapping.get(otherObj));
+			double sim = jaccard(objID, otherObj);
 			if (sim > thr){
 				candidateNeighbors.add(new Neighbor(otherObj,sim));
 			}
 		}
 		return candidateNeighbors;
 	}
+
+	/**
+	 * Exact similarity join of query sets against the objectMapping. The sets of the objects are converted to sorted
+	 * arrays once, and every query is compared to all of them.
+	 */
+	@Override
+	public void join(Map<Integer, Set<Integer>> queries, double thr, PairSink sink) {
+		int numObjects = objectMapping.size();
+		int[][] sets = new int[numObjects][];
+		for (int obj = 0; obj < numObjects; obj++){
+			sets[obj] = sortedArray(obj);
+		}
+		for (Map.Entry<Integer, Set<Integer>> query : queries.entrySet()){
+			int[] set = toSortedArray(query.getValue());
+			for (int obj = 0; obj < numObjects; obj++){
+				double sim = jaccardSimilarity(set, sets[obj]);
+				if (sim > thr){
+					sink.accept(query.getKey(), obj, sim);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the neighbors of many objects at once.
+	 * The sets are converted to sorted arrays once, and the objects are compared in blocks of BLOCK_SIZE queries against
+	 * BLOCK_SIZE other objects, so that a block of sets stays in cache while it is compared to another block.
+	 * @param objIds the objects of which we want to search neighbors
+	 * @param thr the similarity threshold
+	 * @return mapping of every object in objIds to its neighbors
+	 */
+	@Override
+	public Map<Integer, Set<Neighbor>> getNeighborsAboveThreshold(int[] objIds, double thr) {
+		int numObjects = objectMapping.size();
+		int[][] sets = new int[numObjects][];
+		for (int obj = 0; obj < numObjects; obj++){
+			sets[obj] = sortedArray(obj);
+		}
+
+		Map<Integer, Set<Neighbor>> neighbors = new HashMap<Integer, Set<Neighbor>>();
+		for (int objID : objIds){
+			neighbors.put(objID, new HashSet<Neighbor>());
+		}
+		for (int qStart = 0; qStart < objIds.length; qStart += BLOCK_SIZE){
+			int qEnd = Math.min(objIds.length, qStart + BLOCK_SIZE);
+			for (int oStart = 0; oStart < numObjects; oStart += BLOCK_SIZE){
+				int oEnd = Math.min(numObjects, oStart + BLOCK_SIZE);
+				for (int q = qStart; q < qEnd; q++){
+					int[] set = sets[objIds[q]];
+					Set<Neighbor> candidateNeighbors = neighbors.get(objIds[q]);
+					for (int otherObj = oStart; otherObj < oEnd; otherObj++){
+						double sim = jaccardSimilarity(set, sets[otherObj]);
+						if (sim > thr){
+							candidateNeighbors.add(new Neighbor(otherObj,sim));
+						}
+					}
+				}
+			}
+		}
+		return neighbors;
+	}
 	
 
 }
@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory store of sorted sets, one per object, compressed in a single byte array.
+ *
+ * Each set is written as the gaps between its sorted elements (the first element as is), every gap as a varint: 7 bits
+ * per byte, low bits first, the high bit set on all bytes but the last. Shingle and like/dislike ids that are close
+ * together then take one or two bytes instead of a boxed Integer in a HashSet.
+ * The Jaccard similarity is a merge that decodes both sets while it walks them, without copying them.
+ */
+public class CompressedSets implements ObjectSets {
+
+	private byte[] data = new byte[1 << 12];
+	private int numBytes;
+	private int[] offsets = new int[1024]; // offsets[obj] is the index of the first byte of obj
+	private int[] sizes = new int[1024];
+	private int size;
+	private long numElements;
+
+	/**
+	 * Compress the sets of the objects 0..mapping.size()-1 of an object mapping.
+	 */
+	public static CompressedSets of(Map<Integer, Set<Integer>> mapping) {
+		CompressedSets sets = new CompressedSets();
+		for (int obj = 0; obj < mapping.size(); obj++) {
+			sets.append(SimilaritySearcher.toSortedArray(mapping.get(obj)));
+		}
+		sets.trim();
+		return sets;
+	}
+
+	/**
+	 * Append the set of the next object.
+	 * @param sortedSet the set as a sorted array without duplicates
+	 * @return the id of the object
+	 */
+	public int append(int[] sortedSet) {
+		if (size + 1 == offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			sizes = Arrays.copyOf(sizes, offsets.length);
+		}
+		// at most 5 bytes per element
+		long capacity = numBytes + 5L * sortedSet.length;
+		if (capacity > data.length) {
+			if (capacity > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("The compressed sets do not fit in one array");
+			}
+			data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, 2L * data.length)));
+		}
+		int previous = 0;
+		for (int value : sortedSet) {
+			int gap = value - previous;
+			while ((gap & ~0x7F) != 0) {
+				data[numBytes++] = (byte) (gap | 0x80);
+				gap >>>= 7;
+			}
+			data[numBytes++] = (byte) gap;
+			previous = value;
+		}
+		sizes[size] = sortedSet.length;
+		offsets[size + 1] = numBytes;
+		numElements += sortedSet.length;
+		return size++;
+	}
+
+	/**
+	 * Release the unused capacity, once all sets are appended.
+	 */
+	public void trim() {
+		data = Arrays.copyOf(data, numBytes);
+		offsets = Arrays.copyOf(offsets, size + 1);
+		sizes = Arrays.copyOf(sizes, size);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of elements in the set of obj.
+	 */
+	public int setSize(int obj) {
+		return sizes[obj];
+	}
+
+	/**
+	 * Total number of elements in all sets.
+	 */
+	public long getNumElements() {
+		return numElements;
+	}
+
+	/**
+	 * Number of bytes taken by the arrays of the store.
+	 */
+	public long getNumBytes() {
+		return data.length + 4L * offsets.length + 4L * sizes.length;
+	}
+
+	/**
+	 * Returns the number of sets, elements and bytes of the store.
+	 */
+	@Override
+	public String toString() {
+		return size + " sets, " + numElements + " elements in " + getNumBytes() + " bytes ("
+				+ String.format("%.2f", numElements == 0 ? 0.0 : (double) getNumBytes() / numElements) + " bytes per element)";
+	}
+
+	@Override
+	public int[] get(int obj) {
+		int[] set = new int[sizes[obj]];
+		decode(obj, set);
+		return set;
+	}
+
+	/**
+	 * Decode the set of obj into a buffer, so the sets can be iterated without allocating an array per set.
+	 * @param obj the object
+	 * @param buffer array of at least setSize(obj) elements
+	 * @return the number of elements written to the buffer
+	 */
+	public int decode(int obj, int[] buffer) {
+		int pos = offsets[obj];
+		int value = 0;
+		for (int i = 0; i < sizes[obj]; i++) {
+			int gap = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[pos++];
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			value += gap;
+			buffer[i] = value;
+		}
+		return sizes[obj];
+	}
+
+	/**
+	 * Jaccard similarity as a merge of the two compressed sets, each element is decoded once.
+	 */
+	@Override
+	public double jaccard(int obj1, int obj2) {
+		Cursor a = new Cursor(obj1);
+		Cursor b = new Cursor(obj2);
+		int intersection = 0;
+		if (a.next() && b.next()) {
+			while (true) {
+				if (a.value < b.value) {
+					if (!a.next()) break;
+				}else if (a.value > b.value) {
+					if (!b.next()) break;
+				}else{
+					intersection++;
+					if (!a.next() || !b.next()) break;
+				}
+			}
+		}
+		int union = sizes[obj1] + sizes[obj2] - intersection;
+		if (union == 0) {
+			return 0;
+		}
+		return (double) intersection / union;
+	}
+
+	/**
+	 * Decodes the elements of one set in order.
+	 */
+	private class Cursor {
+		int pos;
+		int remaining;
+		int value;
+
+		Cursor(int obj) {
+			pos = offsets[obj];
+			remaining = sizes[obj];
+		}
+
+		boolean next() {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			int gap = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[pos++];
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			value += gap;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,347 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads documents (records) from a single corpus file instead of from one file per document.
+ * 
+ * The file is memory-mapped and scanned once to build an offset index of its records, after which any record can be
+ * read without further system calls, from any thread. Supported formats:
+ * 		- lines: every line is a record, or with a delimiter, records are separated by lines equal to the delimiter
+ * 		- jsonl: every line is a JSON object, the record is the string value of its "text" field
+ * 		- tar: every regular file in an uncompressed tar archive is a record. If all file names are numbers (like the
+ * 		  files of a document directory) the records are ordered on these numbers, otherwise they keep the archive order.
+ * 		- dir: every file in a directory is a record, read when it is requested. The files are ordered like in a tar
+ * 		  archive, on their numbers if all names are numbers, otherwise on their names.
+ */
+public class CorpusReader implements Closeable {
+
+	// a single mapping can not exceed 2GB
+	static final int SEGMENT_SHIFT = 30;
+	static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] segments;
+	private final long fileSize;
+	private final String format;
+	private final String directory; // only in the dir format
+
+	private long[] offsets = new long[1024];
+	private int[] lengths = new int[1024];
+	private List<String> names = new ArrayList<String>();
+	private int size;
+
+	/**
+	 * Open a corpus file and index its records.
+	 * @param fileName the corpus file, or the directory in the dir format
+	 * @param format lines, jsonl, tar or dir
+	 * @param delimiter for the lines format, the line that separates records, or null for one record per line
+	 */
+	public CorpusReader(String fileName, String format, String delimiter) throws IOException {
+		this.format = format;
+		if (format.equals("dir")) {
+			directory = fileName;
+			file = null;
+			segments = new MappedByteBuffer[0];
+			fileSize = 0;
+			indexDirectory();
+			return;
+		}
+		directory = null;
+		file = new RandomAccessFile(fileName, "r");
+		FileChannel channel = file.getChannel();
+		fileSize = channel.size();
+		segments = new MappedByteBuffer[(int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		for (int s = 0; s < segments.length; s++) {
+			long start = s * SEGMENT_SIZE;
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, fileSize - start));
+		}
+
+		if (format.equals("tar")) {
+			indexTar();
+		}else if (format.equals("lines") || format.equals("jsonl")) {
+			indexLines(format.equals("lines") ? delimiter : null);
+		}else{
+			throw new IllegalArgumentException("The corpus format should be lines, jsonl, tar or dir");
+		}
+	}
+
+	/**
+	 * Returns the number of records.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the format of the corpus.
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns the name of a record: its file name in a tar archive or directory, its index otherwise.
+	 */
+	public String getName(int record) {
+		return names.isEmpty() ? Integer.toString(record) : names.get(record);
+	}
+
+	/**
+	 * Returns the text of a record.
+	 */
+	public String record(int record) {
+		if (directory != null) {
+			try {
+				return new String(Files.readAllBytes(Paths.get(directory, names.get(record))), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new Error("Could not read " + directory + "/" + names.get(record), e);
+			}
+		}
+		String text = new String(bytes(offsets[record], lengths[record]), StandardCharsets.UTF_8);
+		if (format.equals("jsonl")) {
+			return jsonField(text, "text");
+		}
+		return text;
+	}
+
+	private void add(long offset, long length, String name) {
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size * 2);
+			lengths = Arrays.copyOf(lengths, size * 2);
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Record " + size + " is larger than 2GB");
+		}
+		offsets[size] = offset;
+		lengths[size] = (int) length;
+		if (name != null) {
+			names.add(name);
+		}
+		size++;
+	}
+
+	private byte byteAt(long pos) {
+		return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & (SEGMENT_SIZE - 1)));
+	}
+
+	private byte[] bytes(long offset, int length) {
+		byte[] bytes = new byte[length];
+		int done = 0;
+		while (done < length) {
+			long pos = offset + done;
+			ByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)].duplicate();
+			segment.position((int) (pos & (SEGMENT_SIZE - 1)));
+			int n = Math.min(length - done, segment.remaining());
+			segment.get(bytes, done, n);
+			done += n;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Index newline separated records, or records separated by delimiter lines.
+	 */
+	private void indexLines(String delimiter) {
+		byte[] delim = delimiter == null ? null : delimiter.getBytes(StandardCharsets.UTF_8);
+		long recordStart = 0;
+		long lineStart = 0;
+		while (lineStart < fileSize) {
+			long lineEnd = lineStart;
+			while (lineEnd < fileSize && byteAt(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			long contentEnd = lineEnd > lineStart && byteAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+			if (delim == null) {
+				if (contentEnd > lineStart) {
+					add(lineStart, contentEnd - lineStart, null);
+				}
+			}else if (isDelimiter(lineStart, contentEnd, delim)) {
+				if (lineStart > recordStart) {
+					add(recordStart, lineStart - recordStart, null);
+				}
+				recordStart = lineEnd + 1;
+			}
+			lineStart = lineEnd + 1;
+		}
+		if (delim != null && fileSize > recordStart) {
+			add(recordStart, fileSize - recordStart, null);
+		}
+	}
+
+	private boolean isDelimiter(long start, long end, byte[] delim) {
+		if (end - start != delim.length) {
+			return false;
+		}
+		for (int i = 0; i < delim.length; i++) {
+			if (byteAt(start + i) != delim[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Index the regular files of a tar archive (ustar, with long names from pax or GNU headers ignored).
+	 */
+	private void indexTar() {
+		long pos = 0;
+		while (pos + 512 <= fileSize && byteAt(pos) != 0) {
+			String name = tarString(pos, 100);
+			long length = tarOctal(pos + 124, 12);
+			byte type = byteAt(pos + 156);
+			String prefix = tarString(pos + 345, 155);
+			if (!prefix.isEmpty()) {
+				name = prefix + "/" + name;
+			}
+			if (type == '0' || type == 0) {
+				add(pos + 512, length, name);
+			}
+			pos += 512 + (length + 511) / 512 * 512;
+		}
+		orderNumericNames();
+	}
+
+	/**
+	 * Index the regular files of a directory by name, their contents are read by record().
+	 */
+	private void indexDirectory() throws IOException {
+		File[] files = new File(directory).listFiles(File::isFile);
+		if (files == null) {
+			throw new IOException("Could not list the directory " + directory);
+		}
+		String[] fileNames = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			fileNames[i] = files[i].getName();
+		}
+		Arrays.sort(fileNames);
+		for (String name : fileNames) {
+			add(0, 0, name);
+		}
+		orderNumericNames();
+	}
+
+	private String tarString(long pos, int max) {
+		int length = 0;
+		while (length < max && byteAt(pos + length) != 0) {
+			length++;
+		}
+		return new String(bytes(pos, length), StandardCharsets.UTF_8);
+	}
+
+	private long tarOctal(long pos, int max) {
+		long value = 0;
+		for (int i = 0; i < max; i++) {
+			byte b = byteAt(pos + i);
+			if (b >= '0' && b <= '7') {
+				value = value * 8 + (b - '0');
+			}else if (b == 0 || value != 0) {
+				break; // only leading spaces are skipped
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * If every file name is a number, reorder the records on these numbers.
+	 */
+	private void orderNumericNames() {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			String name = names.get(i);
+			String base = name.substring(name.lastIndexOf('/') + 1);
+			if (base.isEmpty() || base.length() > 9 || !base.chars().allMatch(Character::isDigit)) {
+				return;
+			}
+			// number in the high bits, archive position in the low bits
+			keys[i] = (Long.parseLong(base) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		long[] sortedOffsets = new long[offsets.length];
+		int[] sortedLengths = new int[lengths.length];
+		List<String> sortedNames = new ArrayList<String>();
+		for (int i = 0; i < size; i++) {
+			int old = (int) keys[i];
+			sortedOffsets[i] = offsets[old];
+			sortedLengths[i] = lengths[old];
+			sortedNames.add(names.get(old));
+		}
+		offsets = sortedOffsets;
+		lengths = sortedLengths;
+		names = sortedNames;
+	}
+
+	/**
+	 * Extract the string value of a top level field from a JSON object, or "" if the field is absent.
+	 */
+	static String jsonField(String json, String field) {
+		String key = "\"" + field + "\"";
+		int i = 0;
+		while ((i = json.indexOf(key, i)) >= 0) {
+			int j = i + key.length();
+			while (j < json.length() && Character.isWhitespace(json.charAt(j))) {
+				j++;
+			}
+			if (j < json.length() && json.charAt(j) == ':') {
+				j++;
+				while (j < json.length() && Character.isWhitespace(json.charAt(j))) {
+					j++;
+				}
+				if (j < json.length() && json.charAt(j) == '"') {
+					return jsonString(json, j + 1);
+				}
+			}
+			i = j;
+		}
+		return "";
+	}
+
+	private static String jsonString(String json, int start) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = start; i < json.length(); i++) {
+			char c = json.charAt(i);
+			if (c == '"') {
+				break;
+			}
+			if (c != '\\' || i + 1 >= json.length()) {
+				sb.append(c);
+				continue;
+			}
+			char e = json.charAt(++i);
+			switch (e) {
+				case 'n': sb.append('\n'); break;
+				case 't': sb.append('\t'); break;
+				case 'r': sb.append('\r'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (i + 4 < json.length()) {
+						sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+						i += 4;
+					}
+					break;
+				default: sb.append(e); // " \ /
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (file != null) {
+			file.close();
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates synthetic data sets, so performance and accuracy can be measured without the MovieLens and Reuters data.
+ * Example command to generate MovieLens-like ratings (written to ratings.train and ratings.test):
+ * 				java DataGenerator -type ratings -output ratings -users 5000 -movies 2000 -density 0.02 -clusters 20
+ * Example command to generate a corpus with one document per line, of which 10% are near-duplicates of other documents:
+ * 				java DataGenerator -type documents -output corpus.txt -docs 10000 -length 200 -duplicates 0.1 -mutation 0.05
+ *
+ * Ratings: every user belongs to one of the taste clusters. A cluster has a set of favorite movies, from which its users
+ * draw most of their ratings, and a taste offset per movie. A rating is the movie quality plus the cluster taste plus
+ * noise, rounded to half stars between 0.5 and 5. Users in the same cluster therefore have similar like/dislike sets.
+ * Documents: words are drawn from a synthetic vocabulary with a Zipf-like distribution. A near-duplicate copies an
+ * earlier document and replaces a fraction (the mutation rate) of its words.
+ */
+public class DataGenerator {
+
+	public static void main(String[] args) throws IOException {
+		String type = "";
+		String output = "";
+		int users = 1000;
+		int movies = 1000;
+		double density = 0.02;
+		int clusters = 10;
+		double testFraction = 0.05;
+		int docs = 1000;
+		int length = 200;
+		double duplicates = 0.1;
+		double mutation = 0.05;
+		int seed = 1;
+
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String arg = args[i];
+			if (arg.equals("-type")) {
+				if (!args[i+1].equals("ratings") && !args[i+1].equals("documents")){
+					System.err.println("The data type should either be ratings or documents");
+				}
+				type = args[i+1];
+			}else if (arg.equals("-output")) {
+				output = args[i+1];
+			}else if (arg.equals("-users")) {
+				users = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-movies")) {
+				movies = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-density")) {
+				density = Double.parseDouble(args[i+1]);
+			}else if (arg.equals("-clusters")) {
+				clusters = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-testFraction")) {
+				testFraction = Double.parseDouble(args[i+1]);
+			}else if (arg.equals("-docs")) {
+				docs = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-length")) {
+				length = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-duplicates")) {
+				duplicates = Double.parseDouble(args[i+1]);
+			}else if (arg.equals("-mutation")) {
+				mutation = Double.parseDouble(args[i+1]);
+			}else if (arg.equals("-seed")) {
+				seed = Integer.parseInt(args[i+1]);
+			}
+			i += 2;
+		}
+
+		Random rand = new Random(seed);
+		if (type.equals("ratings")) {
+			generateRatings(output, users, movies, density, clusters, testFraction, rand);
+		}else if (type.equals("documents")) {
+			generateCorpus(output, docs, length, duplicates, mutation, rand);
+		}
+	}
+
+	/**
+	 * Writes ratings in the MovieLens format (user::movie::rating::timestamp) to prefix.train and prefix.test.
+	 * Every user rates density * movies movies (at least 2), and keeps at least one rating in the training set.
+	 * @param prefix output file prefix
+	 * @param numUsers number of users
+	 * @param numMovies number of movies
+	 * @param density fraction of the movies rated by a user
+	 * @param numClusters number of taste clusters
+	 * @param testFraction fraction of the ratings written to the test set
+	 */
+	public static void generateRatings(String prefix, int numUsers, int numMovies, double density, int numClusters,
+			double testFraction, Random rand) throws IOException {
+		int ratingsPerUser = Math.max(2, Math.min(numMovies, (int) Math.round(density * numMovies)));
+
+		double[] quality = new double[numMovies];
+		for (int m = 0; m < numMovies; m++) {
+			quality[m] = rand.nextGaussian() * 0.7;
+		}
+		// favorite movies and taste offsets per cluster
+		int numFavorites = Math.min(numMovies, 2 * ratingsPerUser);
+		int[][] favorites = new int[numClusters][];
+		double[][] taste = new double[numClusters][numMovies];
+		for (int c = 0; c < numClusters; c++) {
+			favorites[c] = sample(numMovies, numFavorites, rand);
+			for (int m = 0; m < numMovies; m++) {
+				taste[c][m] = rand.nextGaussian();
+			}
+		}
+
+		boolean[] rated = new boolean[numMovies];
+		int[] movies = new int[ratingsPerUser];
+		try (BufferedWriter train = new BufferedWriter(new FileWriter(prefix + ".train"));
+				BufferedWriter test = new BufferedWriter(new FileWriter(prefix + ".test"))) {
+			for (int u = 0; u < numUsers; u++) {
+				int c = rand.nextInt(numClusters);
+				// 80% of the ratings from the cluster favorites, the rest uniformly
+				int n = 0;
+				while (n < ratingsPerUser) {
+					int m = rand.nextDouble() < 0.8 ? favorites[c][rand.nextInt(numFavorites)] : rand.nextInt(numMovies);
+					if (!rated[m]) {
+						rated[m] = true;
+						movies[n++] = m;
+					}
+				}
+				for (int r = 0; r < n; r++) {
+					int m = movies[r];
+					rated[m] = false;
+					double rating = 3 + quality[m] + taste[c][m] + rand.nextGaussian() * 0.5;
+					rating = Math.max(0.5, Math.min(5, Math.round(rating * 2) / 2.0));
+					String line = (u + 1) + "::" + (m + 1) + "::" + format(rating) + "::" + (978300000 + rand.nextInt(1000000));
+					BufferedWriter out = r > 0 && rand.nextDouble() < testFraction ? test : train;
+					out.write(line);
+					out.newLine();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a corpus with one document per line (the lines format of CorpusReader).
+	 * The first part of the corpus are unique documents, the last duplicateFraction * numDocs documents are
+	 * near-duplicates of random earlier documents.
+	 * @param fileName output file
+	 * @param numDocs number of documents
+	 * @param length number of words per document
+	 * @param duplicateFraction fraction of the documents that is a near-duplicate
+	 * @param mutationRate fraction of the words of a near-duplicate that is replaced
+	 */
+	public static void generateCorpus(String fileName, int numDocs, int length, double duplicateFraction,
+			double mutationRate, Random rand) throws IOException {
+		String[] vocabulary = new String[20000];
+		for (int w = 0; w < vocabulary.length; w++) {
+			vocabulary[w] = word(rand);
+		}
+		int numUnique = Math.max(1, (int) Math.round(numDocs * (1 - duplicateFraction)));
+		int[][] documents = new int[numDocs][length];
+
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(fileName))) {
+			for (int d = 0; d < numDocs; d++) {
+				int original = d < numUnique ? -1 : rand.nextInt(d);
+				for (int w = 0; w < length; w++) {
+					if (original >= 0 && rand.nextDouble() >= mutationRate) {
+						documents[d][w] = documents[original][w];
+					}else{
+						documents[d][w] = zipf(vocabulary.length, rand);
+					}
+				}
+				StringBuilder sb = new StringBuilder();
+				for (int w = 0; w < length; w++) {
+					if (w > 0) {
+						sb.append(' ');
+					}
+					sb.append(vocabulary[documents[d][w]]);
+				}
+				out.write(sb.toString());
+				out.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Draws k distinct values from 0..n-1 (partial Fisher-Yates shuffle).
+	 */
+	private static int[] sample(int n, int k, Random rand) {
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = i;
+		}
+		for (int i = 0; i < k; i++) {
+			int j = i + rand.nextInt(n - i);
+			int tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
+		int[] result = new int[k];
+		System.arraycopy(values, 0, result, 0, k);
+		return result;
+	}
+
+	/**
+	 * Draws a word index with a probability roughly proportional to 1 / (index + 1).
+	 */
+	private static int zipf(int n, Random rand) {
+		return (int) Math.min(n - 1, Math.floor(Math.exp(rand.nextDouble() * Math.log(n + 1)) - 1));
+	}
+
+	private static String word(Random rand) {
+		int length = 2 + rand.nextInt(8);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ('a' + rand.nextInt(26));
+		}
+		return new String(chars);
+	}
+
+	private static String format(double rating) {
+		return rating == Math.floor(rating) ? Integer.toString((int) rating) : Double.toString(rating);
+	}
+
+}
@@ -1,9 +1,18 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Reads a directory of documents and constructs shingle representations for these documents.
+ * Reads a directory of documents, or a single corpus file (see CorpusReader), and constructs shingle representations for these documents.
  * 
  * @author Toon Van Craenendonck
  *
@@ -14,6 +23,13 @@ public class DocumentHandler {
 																				     // to its shingle set representation
 	SimpleShingler shingler; 
 	int numDocuments;
+	// only used in streaming mode
+	MinHasher hasher;
+	ShingleStore store;
+	// only used when the sets are compressed
+	CompressedSets compressed;
+	// the names of the documents, null if they are numbered 0..numDocuments-1
+	IdDictionary names;
 
 	/**
 	 * Constructing a DocumentHandler causes it to read maxFiles documents from directory fileDir and construct shingle set representations for them.
@@ -21,8 +37,15 @@ public class DocumentHandler {
 	 * @param maxFiles number of files to read
 	 */
 	public DocumentHandler(String fileDir, int maxFiles, int shingleLength){
+		this(fileDir, maxFiles, new SimpleShingler(shingleLength));
+	}
+
+	/**
+	 * Read maxFiles documents from directory fileDir and shingle them with the given shingler (e.g. one with stop shingles).
+	 */
+	public DocumentHandler(String fileDir, int maxFiles, SimpleShingler shingler){
 		this.numDocuments = maxFiles;
-		shingler = new SimpleShingler(shingleLength);
+		this.shingler = shingler;
 		
 		for (int fileID = 0; fileID < maxFiles; fileID++){
 			Set<Integer> shingle = shingler.shingle(fileDir + "/" + fileID);
@@ -30,6 +53,219 @@ public class DocumentHandler {
 		}
 	}
 	
+	/**
+	 * Constructing a DocumentHandler from a corpus file reads the first maxFiles records of the corpus (all records if
+	 * maxFiles is -1). The records are split into shingles in parallel, the shingles are then numbered in record order,
+	 * so the shingle sets are the same as when every record would be read from its own file.
+	 * @param corpus the corpus file
+	 * @param maxFiles number of records to read
+	 * @param numThreads number of threads used to split records into shingles
+	 */
+	public DocumentHandler(CorpusReader corpus, int maxFiles, int shingleLength, int numThreads){
+		this(corpus, maxFiles, new SimpleShingler(shingleLength), numThreads);
+	}
+
+	/**
+	 * Read the first maxFiles records of the corpus and shingle them with the given shingler.
+	 */
+	public DocumentHandler(CorpusReader corpus, int maxFiles, SimpleShingler shingler, int numThreads){
+		this.numDocuments = maxFiles < 0 ? corpus.size() : Math.min(maxFiles, corpus.size());
+		this.shingler = shingler;
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			// a window of records is split in parallel, then numbered, to bound the number of pending shingle lists
+			int window = numThreads * 64;
+			for (int start = 0; start < numDocuments; start += window){
+				List<Future<Collection<String>>> pending = new ArrayList<Future<Collection<String>>>();
+				for (int fileID = start; fileID < Math.min(numDocuments, start + window); fileID++){
+					final int record = fileID;
+					pending.add(pool.submit(() -> shingler.shingleStrings(SimpleShingler.joinLines(corpus.record(record)))));
+				}
+				for (int i = 0; i < pending.size(); i++){
+					fileToShingle.put(start + i, shingler.hashShingles(pending.get(i).get()));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("Interrupted while shingling the corpus", e);
+		} catch (ExecutionException e) {
+			throw new Error("Could not shingle the corpus", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Constructing a DocumentHandler in streaming mode reads maxFiles documents from directory fileDir (or from the corpus
+	 * file if corpus is not null), but does not keep their shingle sets in memory. Every document is signed by the hasher
+	 * as soon as it is shingled, and its sorted shingle array is spilled to a ShingleStore in storeFile.
+	 * The object mapping is then a view on the store. The shingles are hashed to their integers (see
+	 * SimpleShingler.setHashed), so the shingler keeps no map of all distinct shingles either; a TokenShingler keeps its
+	 * primitive shingle numbers.
+	 * @param fileDir file directory
+	 * @param corpus the corpus file to read instead of the directory, or null
+	 * @param maxFiles number of files to read
+	 * @param hasher computes the signature columns of the documents
+	 * @param storeFile file to spill the shingle sets to
+	 */
+	public DocumentHandler(String fileDir, CorpusReader corpus, int maxFiles, int shingleLength, MinHasher hasher, File storeFile) throws IOException {
+		this(fileDir, corpus, maxFiles, new SimpleShingler(shingleLength), hasher, storeFile);
+	}
+
+	/**
+	 * Read the documents in streaming mode, and shingle them with the given shingler.
+	 */
+	public DocumentHandler(String fileDir, CorpusReader corpus, int maxFiles, SimpleShingler shingler, MinHasher hasher, File storeFile) throws IOException {
+		if (corpus != null){
+			maxFiles = maxFiles < 0 ? corpus.size() : Math.min(maxFiles, corpus.size());
+		}
+		this.numDocuments = maxFiles;
+		this.hasher = hasher;
+		this.shingler = shingler;
+		store = new ShingleStore(storeFile);
+		shingler.setHashed();
+
+		for (int fileID = 0; fileID < maxFiles; fileID++){
+			Set<Integer> shingled = corpus == null ? shingler.shingle(fileDir + "/" + fileID) : shingler.shingleRecord(corpus.record(fileID));
+			int[] shingles = SimilaritySearcher.toSortedArray(shingled);
+			hasher.add(shingles);
+			store.append(shingles);
+		}
+		store.finish();
+		fileToShingle = store.asMap();
+	}
+
+	/**
+	 * Pre-pass over the documents that counts, for every shingle, the number of documents it occurs in. The counts are
+	 * kept in a count-min sketch, so its memory does not grow with the number of distinct shingles.
+	 * The documents are read like the constructors read them, from directory fileDir or from the corpus if not null.
+	 * @param shingler splits the documents into shingles, its shingle map is not modified
+	 * @param sketch the sketch to count in
+	 * @return the number of documents that were counted
+	 */
+	public static int countDocumentFrequencies(String fileDir, CorpusReader corpus, int maxFiles, SimpleShingler shingler, FrequencySketch sketch){
+		if (corpus != null){
+			maxFiles = maxFiles < 0 ? corpus.size() : Math.min(maxFiles, corpus.size());
+		}
+		for (int fileID = 0; fileID < maxFiles; fileID++){
+			String text = corpus == null ? SimpleShingler.readFile(fileDir + "/" + fileID) : SimpleShingler.joinLines(corpus.record(fileID));
+			shingler.countShingles(text, sketch);
+		}
+		return maxFiles;
+	}
+
+	/**
+	 * Shingle another collection of documents (e.g. a batch to join against these documents, see SimilaritySearcher.join)
+	 * with the same shingler, without adding them to the object mapping. Shingles that none of these documents have get
+	 * new numbers, so they count in the union of the Jaccard similarity; LSH ignores them when signing the queries.
+	 * @param fileDir file directory of the documents
+	 * @param corpus the corpus file to read instead of the directory, or null
+	 * @param maxFiles number of documents to read (all records of the corpus if -1)
+	 * @return the shingle sets, keyed on the number of the document in its collection
+	 */
+	public Map<Integer, Set<Integer>> shingleCollection(String fileDir, CorpusReader corpus, int maxFiles){
+		if (corpus != null){
+			maxFiles = maxFiles < 0 ? corpus.size() : Math.min(maxFiles, corpus.size());
+		}
+		Map<Integer, Set<Integer>> collection = new HashMap<Integer, Set<Integer>>();
+		for (int fileID = 0; fileID < maxFiles; fileID++){
+			collection.put(fileID, corpus == null ? shingler.shingle(fileDir + "/" + fileID) : shingler.shingleRecord(corpus.record(fileID)));
+		}
+		return collection;
+	}
+
+	/**
+	 * Compress the shingle sets (see CompressedSets), the object mapping is then a view on the compressed sets.
+	 * @return the compressed sets
+	 */
+	public CompressedSets compressSets(){
+		compressed = CompressedSets.of(fileToShingle);
+		fileToShingle = compressed.asMap();
+		return compressed;
+	}
+
+	/**
+	 * Identify the documents by the names of their records in the corpus (e.g. the file names of a tar archive or of a
+	 * directory read with the dir format) instead of by their numbers. The searchers keep working on the numbers, the
+	 * names map them to and from external IDs.
+	 * @return the names, indexed on the document numbers
+	 */
+	public IdDictionary nameDocuments(CorpusReader corpus){
+		names = recordNames(corpus, numDocuments);
+		return names;
+	}
+
+	/**
+	 * The names of the first numRecords records of a corpus, e.g. of a collection read by shingleCollection.
+	 * @return the names, indexed on the record numbers
+	 */
+	public static IdDictionary recordNames(CorpusReader corpus, int numRecords){
+		IdDictionary names = new IdDictionary();
+		numRecords = numRecords < 0 ? corpus.size() : Math.min(numRecords, corpus.size());
+		for (int record = 0; record < numRecords; record++){
+			if (names.add(corpus.getName(record)) != record){
+				throw new Error("The corpus has two documents named " + corpus.getName(record));
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Get the names of the documents, only available after nameDocuments().
+	 * @return the names, or null if the documents are identified by their numbers
+	 */
+	public IdDictionary getNames(){
+		return names;
+	}
+
+	/**
+	 * Maps the external ID of a document (its name, or its number if the documents are not named) to its number.
+	 * @return the number of the document, or -1 if there is no such document
+	 */
+	public int getInternalID(String id){
+		if (names != null){
+			return names.get(id);
+		}
+		try {
+			int fileID = Integer.parseInt(id);
+			return fileID >= 0 && fileID < numDocuments ? fileID : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Maps the number of a document to its external ID, its name or else its number.
+	 */
+	public String getName(int fileID){
+		return names != null ? names.getName(fileID) : Integer.toString(fileID);
+	}
+
+	/**
+	 * Get the signature matrix of the documents, only available in streaming mode.
+	 * @return the (numHashes x numDocuments) signature matrix
+	 */
+	public int[][] getSignatureMatrix(){
+		return hasher.getSignatureMatrix();
+	}
+
+	/**
+	 * Get the store holding the shingle sets, only available in streaming mode.
+	 * @return the store
+	 */
+	public ShingleStore getStore(){
+		return store;
+	}
+
+	/**
+	 * Get the compressed shingle sets, only available after compressSets().
+	 * @return the compressed sets
+	 */
+	public CompressedSets getCompressedSets(){
+		return compressed;
+	}
+
 	/**
 	 * Get the mapping of filename (which in this case is equal to the object id) to its set representation.
 	 * @return the mapping
@@ -38,6 +274,14 @@ public class DocumentHandler {
 		return fileToShingle;
 	}
 
+	/**
+	 * Get the shingler used to construct the shingle sets.
+	 * @return the shingler
+	 */
+	public SimpleShingler getShingler(){
+		return shingler;
+	}
+
 	/**
 	 * Get the number of unique shingles that were processed.
 	 * @return the number of unique shingles
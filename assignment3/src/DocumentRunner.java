@@ -1,9 +1,6 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * The DocumentRunner can be ran from the commandline to find the most similar pairs of documents in a directory.
@@ -11,25 +8,107 @@ import java.util.Set;
  * 				java DocumentRunner -threshold 0.5 -method bf -maxFiles 100 -dir articles -shingleLength 5 
  * Example command to run with LSH similarity search:
  * 				java DocumentRunner -threshold 0.5 -method lsh -maxFiles 100 -dir articles -shingleLength 5 -numHashes 100 -numBands 20
+ * Example command to run with SimHash near duplicate search (fingerprints differing in at most 3 of 64 bits):
+ * 				java DocumentRunner -threshold 0.9 -method simhash -maxFiles 100 -dir articles -shingleLength 5 -maxHamming 3
+ * The pairs are printed on decreasing similarity, options to change the output:
+ * 				-output pairs.csv	write to a file instead of stdout
+ * 				-top 1000			only output the 1000 most similar pairs
+ * 				-order none			output the pairs in the order they are found, without sorting
+ * Instead of a directory, -corpus reuters.tar reads all documents from one file (a tar archive, a .jsonl file or a
+ * file with one document per line, see CorpusReader), -maxFiles is then optional.
+ * With -method sharded -shards 4, the LSH bands are split over 4 worker processes, see ShardedLSH.
+ * With LSH, -streaming shingles.bin signs every document as soon as it is read and spills its shingles to shingles.bin,
+ * instead of keeping all shingle sets in memory.
+ * With -sets compressed, the shingle sets are kept delta and varint encoded in one byte array (see CompressedSets).
+ * With -stopShingles 0.5, a pre-pass counts in how many documents every shingle occurs (in a count-min sketch of
+ * -sketchWidth counters per row), and shingles that occur in more than half of the documents are left out of the sets.
+ * With -shingles tokens, the shingles are -shingleLength consecutive words instead of characters (see TokenShingler).
+ * With -deadline 5000, the pair search stops after 5 seconds and outputs the pairs found so far, the pairs that are most
+ * likely similar are verified first (lsh and bf, see SearchBudget). The covered part of the candidate pairs is printed.
+ * With -ids names, the documents are identified by their file names (in -dir, or in the tar archive of -corpus) instead
+ * of by the numbers 0 to -maxFiles, so the files of -dir can have any name (see IdDictionary). -corpus with a directory
+ * reads it like -dir -ids names.
  *
  * @author Toon Van Craenendonck
  */
 
 public class DocumentRunner {
 
-	public static void main(String[] args) {	
+	static DocumentHandler documents;
+
+	public static void main(String[] args) throws IOException {	
 
 		SimilaritySearcher searcher = constructSimilaritySearcher(args); // can be a brute force (bf) searcher or an LSH (lsh) searcher
-		Set<SimilarPair> similarItems = new HashSet<SimilarPair>();
-		
+
+		String outputFile = null; // stdout
+		String order = "sorted";
+		int top = -1;
+		long deadline = -1;
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			if (args[i].equals("-output")) {
+				outputFile = args[i+1];
+			}else if (args[i].equals("-order")) {
+				if (!args[i+1].equals("sorted") && !args[i+1].equals("none")){
+					System.err.println("The output order should either be sorted or none");
+				}
+				order = args[i+1];
+			}else if (args[i].equals("-top")) {
+				top = Integer.parseInt(args[i+1]);
+			}else if (args[i].equals("-deadline")) {
+				deadline = Long.parseLong(args[i+1]);
+			}
+			i += 2;
+		}
+
 		if(args[0].equals("-threshold")){
-		    similarItems = searcher.getSimilarPairsAboveThreshold(Double.parseDouble(args[1]));
+			SearchBudget budget = deadline > 0 ? new SearchBudget(deadline) : null;
+			writePairs(searcher, Double.parseDouble(args[1]), outputFile, order.equals("sorted"), top, budget);
+			if (budget != null){
+				System.err.println("Covered " + budget.getCovered() + " of " + budget.getTotal() + " candidate pairs ("
+						+ String.format("%.1f", 100 * budget.getCoverage()) + "%)" + (budget.isComplete() ? "" : ", stopped at the deadline"));
+			}
 		}
-		
-		printPairs(similarItems);
 
 	}
-	
+
+	/**
+	 * Streams the similar pairs to a file (or stdout if outputFile is null).
+	 * With top > 0 only the top most similar pairs are kept, in a heap. Otherwise, if sorted is set, all pairs are
+	 * ordered on decreasing similarity with an external merge sort, else they are written in the order they are found.
+	 */
+	public static void writePairs(SimilaritySearcher searcher, double threshold, String outputFile, boolean sorted, int top) throws IOException {
+		writePairs(searcher, threshold, outputFile, sorted, top, null);
+	}
+
+	/**
+	 * Streams the similar pairs that are found within a time budget (the complete search if budget is null).
+	 */
+	public static void writePairs(SimilaritySearcher searcher, double threshold, String outputFile, boolean sorted, int top, SearchBudget budget) throws IOException {
+		try (PairWriter writer = new PairWriter(outputFile, documents == null ? null : documents.getNames())) {
+			if (top > 0) {
+				TopPairs topPairs = new TopPairs(top);
+				search(searcher, threshold, topPairs, budget);
+				topPairs.writeTo(writer);
+			}else if (sorted) {
+				try (ExternalPairSorter sorter = new ExternalPairSorter()) {
+					search(searcher, threshold, sorter, budget);
+					sorter.writeTo(writer);
+				}
+			}else{
+				search(searcher, threshold, writer, budget);
+			}
+		}
+	}
+
+	private static void search(SimilaritySearcher searcher, double threshold, PairSink sink, SearchBudget budget) {
+		if (budget == null) {
+			searcher.getSimilarPairsAboveThreshold(threshold, sink);
+		}else{
+			searcher.getSimilarPairsAboveThreshold(threshold, sink, budget);
+		}
+	}
+
 	/**
 	 * Constructs a similarity searcher.
 	 */
@@ -42,13 +121,25 @@ public class DocumentRunner {
 		int seed = -1;
 		int maxFiles = -1;
 		int shingleLength = -1;
+		String storeFile = null;
+		int maxHamming = 3;
+		String corpusFile = null;
+		String format = null;
+		String delimiter = null;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int numShards = 2;
+		String setFormat = "boxed";
+		String shingles = "chars";
+		double stopFraction = -1;
+		int sketchWidth = 1 << 20;
+		String ids = "numbers";
 		
 		int i = 0;
 		while (i < args.length && args[i].startsWith("-")) {
 			String arg = args[i];
 			if (arg.equals("-method")) {
-				if (!args[i+1].equals("bf") && !args[i+1].equals("lsh")){
-					System.err.println("The search method should either be brute force (bf) or minhash and locality sensitive hashing (lsh)");
+				if (!args[i+1].equals("bf") && !args[i+1].equals("lsh") && !args[i+1].equals("simhash") && !args[i+1].equals("sharded")){
+					System.err.println("The search method should either be brute force (bf), minhash and locality sensitive hashing (lsh), sharded lsh (sharded) or simhash (simhash)");
 				}
                 method = args[i+1];
             }else if(arg.equals("-numHashes")){
@@ -63,37 +154,142 @@ public class DocumentRunner {
             	maxFiles = Integer.parseInt(args[i+1]);
             }else if(arg.equals("-shingleLength")){
             	shingleLength = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-maxHamming")){
+            	maxHamming = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-corpus")){
+            	corpusFile = args[i+1];
+            }else if(arg.equals("-format")){
+            	format = args[i+1];
+            }else if(arg.equals("-delimiter")){
+            	delimiter = args[i+1];
+            }else if(arg.equals("-threads")){
+            	numThreads = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-shards")){
+            	numShards = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-streaming")){
+            	storeFile = args[i+1];
+            }else if(arg.equals("-shingles")){
+				if (!args[i+1].equals("chars") && !args[i+1].equals("tokens")){
+					System.err.println("The shingles should either be chars or tokens");
+				}
+            	shingles = args[i+1];
+            }else if(arg.equals("-stopShingles")){
+            	stopFraction = Double.parseDouble(args[i+1]);
+            }else if(arg.equals("-sketchWidth")){
+            	sketchWidth = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-sets")){
+				if (!args[i+1].equals("boxed") && !args[i+1].equals("compressed")){
+					System.err.println("The sets should either be boxed or compressed");
+				}
+            	setFormat = args[i+1];
+            }else if(arg.equals("-ids")){
+				if (!args[i+1].equals("numbers") && !args[i+1].equals("names")){
+					System.err.println("The ids should either be numbers or names");
+				}
+            	ids = args[i+1];
             } else if (arg.equals("-rowsPerBand")) {
 		numHashes = Integer.parseInt(args[i+1]) * numBands;
 	    }
 			i += 2;
 		}
 
-		DocumentHandler dh = new DocumentHandler(fileDir, maxFiles, shingleLength);
 		Random rand = new Random(seed);
+		CorpusReader corpus = null;
+		if (corpusFile == null && ids.equals("names")){
+		    // the files of the directory are read by name instead of by number
+		    corpusFile = fileDir;
+		    format = "dir";
+		}
+		if (corpusFile != null){
+		    if (format == null){
+			format = new File(corpusFile).isDirectory() ? "dir" : corpusFile.endsWith(".tar") ? "tar" : corpusFile.endsWith(".jsonl") ? "jsonl" : "lines";
+		    }
+		    try {
+			corpus = new CorpusReader(corpusFile, format, delimiter);
+		    } catch (IOException e) {
+			throw new Error("Could not read the corpus " + corpusFile, e);
+		    }
+		}
+		SimpleShingler shingler = shingles.equals("tokens") ? new TokenShingler(shingleLength) : new SimpleShingler(shingleLength);
+		if (stopFraction >= 0){
+		    long startTime = System.currentTimeMillis();
+		    // its own seed, so the hash functions of the searchers do not change
+		    FrequencySketch sketch = new FrequencySketch(sketchWidth, 4, new Random(seed));
+		    int numDocuments = DocumentHandler.countDocumentFrequencies(fileDir, corpus, maxFiles, shingler, sketch);
+		    shingler.setStopShingles(sketch, (int) (stopFraction * numDocuments));
+		    System.err.println("Counted shingle document frequencies in a " + sketch.getNumBytes() / 1024 + "KB sketch, took "
+		    		+ (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+		}
+		if (storeFile != null && method.equals("lsh")){
+		    if(numHashes == -1 || numBands == -1){
+			throw new Error("Both -numHashes and -numBands are mandatory arguments for the LSH method"); 
+		    }
+		    try {
+			documents = new DocumentHandler(fileDir, corpus, maxFiles, shingler, new MinHasher(numHashes, rand), new File(storeFile));
+		    } catch (IOException e) {
+			throw new Error("Could not write the shingle store " + storeFile, e);
+		    }
+		    nameDocuments(corpus, ids);
+		    printShingles(shingler, stopFraction);
+		    return new LSH(documents.getObjectMapping(), documents.getSignatureMatrix(), numBands, documents.hasher, documents.getStore(), numThreads);
+		}
+		if (corpus != null){
+		    documents = new DocumentHandler(corpus, maxFiles, shingler, numThreads);
+		}else{
+		    documents = new DocumentHandler(fileDir, maxFiles, shingler);
+		}
+		nameDocuments(corpus, ids);
+		printShingles(shingler, stopFraction);
+		ObjectSets sets = null;
+		if (setFormat.equals("compressed")){
+		    sets = documents.compressSets();
+		    System.err.println("Compressed shingle sets: " + sets);
+		}
 		
 		if (method.equals("bf")){
-			return new BruteForceSearch(dh.getObjectMapping());
+			return new BruteForceSearch(documents.getObjectMapping(), sets);
 		}else if(method.equals("lsh")){
 		    if(numHashes == -1 || numBands == -1){
 			throw new Error("Both -numHashes and -numBands are mandatory arguments for the LSH method"); 
 		    }
-		    return new LSH(dh.getObjectMapping(), numHashes, numBands, dh.getNumShingles(), rand);
+		    return new LSH(documents.getObjectMapping(), numHashes, numBands, documents.getNumShingles(), rand, numThreads, sets);
+		}else if(method.equals("sharded")){
+		    if(numHashes == -1 || numBands == -1){
+			throw new Error("Both -numHashes and -numBands are mandatory arguments for the LSH method"); 
+		    }
+		    return new ShardedLSH(documents.getObjectMapping(), "documents", args, numShards);
+		}else if(method.equals("simhash")){
+		    return new SimHash(documents.getObjectMapping(), maxHamming, rand);
 		}
 		return null;
 
 	}
-	
+
 	/**
-	 * Prints pairs and their similarity.
-	 * @param similarItems
+	 * Names the documents after their records in the corpus, unless they are identified by numbers.
 	 */
-	public static void printPairs(Set<SimilarPair> similarItems){
-		List<SimilarPair> sim = new ArrayList<SimilarPair>(similarItems);
-		Collections.sort(sim, Collections.reverseOrder());
-		for(SimilarPair p : sim){
-			System.out.println(p.getId1() + "," + p.getId2() + "," + p.getSimilarity());
+	private static void nameDocuments(CorpusReader corpus, String ids){
+		if (ids.equals("names") || (corpus != null && corpus.getFormat().equals("dir"))){
+			documents.nameDocuments(corpus);
+		}
+	}
+
+	/**
+	 * Prints the vocabulary of a TokenShingler, and how many stop shingles were dropped if stop shingles were used.
+	 */
+	private static void printShingles(SimpleShingler shingler, double stopFraction){
+		if (shingler instanceof TokenShingler){
+			TokenShingler tokens = (TokenShingler) shingler;
+			System.err.println("Vocabulary: " + tokens.getNumTokens() + " tokens, " + tokens.getNumShingles() + " shingles in "
+					+ tokens.getNumBytes() / 1024 + "KB, " + tokens.getNumElements() + " set elements");
+		}
+		if (stopFraction < 0){
+			return;
 		}
+		long total = shingler.getNumElements() + shingler.getNumStopElements();
+		System.err.println("Dropped " + shingler.getNumStopShingles() + " stop shingles (in more than " + stopFraction * 100
+				+ "% of the documents): " + shingler.getNumStopElements() + " of " + total + " set elements ("
+				+ String.format("%.1f", total == 0 ? 0.0 : 100.0 * shingler.getNumStopElements() / total) + "%)");
 	}
 	
 }
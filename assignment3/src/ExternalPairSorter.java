@@ -0,0 +1,176 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts similar pairs on decreasing similarity without keeping them all in memory.
+ * Pairs are buffered in runs of at most runSize pairs, each full run is sorted and spilled to a temporary file,
+ * and writeTo merges the runs. The buffers start small and grow up to runSize, so a search with few pairs does not
+ * allocate a full run. Ties on similarity are ordered on increasing (id1, id2).
+ */
+public class ExternalPairSorter implements PairSink, Closeable {
+
+	static final int DEFAULT_RUN_SIZE = 1 << 22;
+
+	static final int INITIAL_CAPACITY = 1 << 10;
+
+	private final int runSize;
+	private long[] pairs;
+	private double[] similarities;
+	private int size;
+	private final List<File> runs = new ArrayList<File>();
+
+	public ExternalPairSorter() {
+		this(DEFAULT_RUN_SIZE);
+	}
+
+	/**
+	 * @param runSize number of pairs kept in memory before a run is spilled
+	 */
+	public ExternalPairSorter(int runSize) {
+		this.runSize = runSize;
+		pairs = new long[Math.min(runSize, INITIAL_CAPACITY)];
+		similarities = new double[pairs.length];
+	}
+
+	@Override
+	public void accept(int id1, int id2, double similarity) {
+		if (size == pairs.length && size < runSize) {
+			int capacity = (int) Math.min(runSize, 2L * size);
+			pairs = Arrays.copyOf(pairs, capacity);
+			similarities = Arrays.copyOf(similarities, capacity);
+		}else if (size == pairs.length) {
+			try {
+				spill();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		pairs[size] = SimilarPairList.pack(id1, id2);
+		similarities[size] = similarity;
+		size++;
+	}
+
+	/**
+	 * Number of runs spilled to disk so far.
+	 */
+	public int getNumRuns() {
+		return runs.size();
+	}
+
+	private void spill() throws IOException {
+		SimilarPairList.sort(pairs, similarities, 0, size - 1);
+		File run = File.createTempFile("pairs", ".run");
+		run.deleteOnExit();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+			for (int i = 0; i < size; i++) {
+				out.writeLong(pairs[i]);
+				out.writeDouble(similarities[i]);
+			}
+		}
+		runs.add(run);
+		size = 0;
+	}
+
+	/**
+	 * Pass all pairs to the sink on decreasing similarity.
+	 */
+	public void writeTo(PairSink sink) throws IOException {
+		if (runs.isEmpty()) {
+			SimilarPairList.sort(pairs, similarities, 0, size - 1);
+			for (int i = 0; i < size; i++) {
+				sink.accept((int) (pairs[i] >>> 32), (int) pairs[i], similarities[i]);
+			}
+			size = 0;
+			return;
+		}
+
+		if (size > 0) {
+			spill();
+		}
+		PriorityQueue<Run> queue = new PriorityQueue<Run>();
+		try {
+			for (File file : runs) {
+				Run run = new Run(file);
+				if (run.next()) {
+					queue.add(run);
+				}else{
+					run.close();
+				}
+			}
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				sink.accept((int) (run.pair >>> 32), (int) run.pair, run.similarity);
+				if (run.next()) {
+					queue.add(run);
+				}else{
+					run.close();
+				}
+			}
+		} finally {
+			for (Run run : queue) {
+				run.close();
+			}
+		}
+	}
+
+	/**
+	 * Remove the spilled runs.
+	 */
+	@Override
+	public void close() {
+		for (File run : runs) {
+			run.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Reader of one spilled run, ordered on its current pair.
+	 */
+	private static class Run implements Comparable<Run>, Closeable {
+		final DataInputStream in;
+		long pair;
+		double similarity;
+
+		Run(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		boolean next() throws IOException {
+			try {
+				pair = in.readLong();
+				similarity = in.readDouble();
+				return true;
+			} catch (EOFException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public int compareTo(Run r) {
+			if (similarity != r.similarity) {
+				return similarity > r.similarity ? -1 : 1;
+			}
+			return Long.compare(pair, r.pair);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+import java.util.Random;
+
+/**
+ * Count-min sketch of string frequencies, in a fixed amount of memory however many distinct strings are counted.
+ *
+ * Every string is counted in one counter of each of the depth rows, the estimate is the minimum over its counters. An
+ * estimate is never below the real count; it is above it only when all counters collide with other strings. With
+ * conservative update only the counters that are at the minimum are incremented, which keeps the overestimates low.
+ * The counters of a string are picked from a 64-bit hash of its characters (not from String.hashCode(), with which two
+ * strings of equal hashCode would share their counters in every row).
+ */
+public class FrequencySketch {
+
+	private final int[][] counts;
+	private final long[] seeds;
+	private final int mask;
+
+	/**
+	 * @param width number of counters per row, rounded up to a power of two
+	 * @param depth number of rows
+	 * @param rand object to generate the row seeds
+	 */
+	public FrequencySketch(int width, int depth, Random rand) {
+		int size = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+		counts = new int[depth][size];
+		seeds = new long[depth];
+		for (int row = 0; row < depth; row++) {
+			seeds[row] = rand.nextLong();
+		}
+		mask = size - 1;
+	}
+
+	private int index(int row, long hash) {
+		return (int) SimHash.mix(hash ^ seeds[row]) & mask;
+	}
+
+	/**
+	 * Count one occurrence of a string.
+	 */
+	public void add(String item) {
+		add(hash(item));
+	}
+
+	/**
+	 * Count one occurrence of an item identified by a (hash) key.
+	 */
+	public void add(long hash) {
+		int min = estimate(hash);
+		if (min == Integer.MAX_VALUE) {
+			return;
+		}
+		for (int row = 0; row < counts.length; row++) {
+			int i = index(row, hash);
+			if (counts[row][i] == min) {
+				counts[row][i] = min + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the estimated number of occurrences of a string, at least the real number.
+	 */
+	public int estimate(String item) {
+		return estimate(hash(item));
+	}
+
+	/**
+	 * The 64-bit hash of the characters of a string, the strings are keyed like the token shingles of TokenShingler.
+	 */
+	static long hash(String item) {
+		long hash = item.length();
+		for (int i = 0; i < item.length(); i++) {
+			hash = SimHash.mix(hash * 0x9E3779B97F4A7C15L + item.charAt(i));
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the estimated number of occurrences of an item identified by a (hash) key, at least the real number.
+	 */
+	public int estimate(long hash) {
+		int min = Integer.MAX_VALUE;
+		for (int row = 0; row < counts.length; row++) {
+			min = Math.min(min, counts[row][index(row, hash)]);
+		}
+		return min;
+	}
+
+	/**
+	 * Number of bytes taken by the counters.
+	 */
+	public long getNumBytes() {
+		return 4L * counts.length * counts[0].length;
+	}
+
+}
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ * Dictionary of external IDs (longs, or strings such as file names) that assigns dense internal IDs 0..size()-1 in the
+ * order the IDs are added. The searchers work on the internal IDs (they index objects 0..n-1), and the results are
+ * translated back with getID or getName.
+ *
+ * Lookups go through a LongIntMap, so no ID is boxed and no list is scanned. A string is looked up on a 64-bit hash of
+ * its characters; if two strings have the same hash, the later one is stored under a rehash of it, so the
+ * dictionary stays exact.
+ */
+public class IdDictionary {
+
+	private final LongIntMap internalIDs = new LongIntMap();
+	private long[] ids = new long[1024];
+	private String[] names; // only for string IDs
+	private int size;
+
+	/**
+	 * Returns the internal ID of a long ID, adding it if it is new.
+	 */
+	public int add(long id) {
+		if (names != null) {
+			throw new IllegalStateException("The dictionary holds string IDs");
+		}
+		int internalID = internalIDs.putIfAbsent(id, size);
+		if (internalID == size) {
+			grow();
+			ids[size++] = id;
+		}
+		return internalID;
+	}
+
+	/**
+	 * Returns the internal ID of a long ID, or -1 if it is not in the dictionary.
+	 */
+	public int get(long id) {
+		return internalIDs.get(id, -1);
+	}
+
+	/**
+	 * Returns the internal ID of a string ID, adding it if it is new.
+	 */
+	public int add(String name) {
+		if (names == null) {
+			if (size > 0) {
+				throw new IllegalStateException("The dictionary holds long IDs");
+			}
+			names = new String[ids.length];
+		}
+		long key = hash(name);
+		while (true) {
+			int internalID = internalIDs.get(key, -1);
+			if (internalID < 0) {
+				internalIDs.put(key, size);
+				grow();
+				ids[size] = key;
+				names[size] = name;
+				return size++;
+			}
+			if (names[internalID].equals(name)) {
+				return internalID;
+			}
+			key = SimHash.mix(key + 1); // another string has this hash
+		}
+	}
+
+	/**
+	 * Returns the internal ID of a string ID, or -1 if it is not in the dictionary.
+	 */
+	public int get(String name) {
+		if (names == null) {
+			return -1;
+		}
+		long key = hash(name);
+		while (true) {
+			int internalID = internalIDs.get(key, -1);
+			if (internalID < 0 || names[internalID].equals(name)) {
+				return internalID;
+			}
+			key = SimHash.mix(key + 1);
+		}
+	}
+
+	private static long hash(String name) {
+		long hash = 1125899906842597L;
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + name.charAt(i);
+		}
+		return SimHash.mix(hash);
+	}
+
+	private void grow() {
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size * 2);
+			if (names != null) {
+				names = Arrays.copyOf(names, size * 2);
+			}
+		}
+	}
+
+	/**
+	 * Returns the long ID of an internal ID.
+	 */
+	public long getID(int internalID) {
+		return ids[internalID];
+	}
+
+	/**
+	 * Returns the ID of an internal ID as a string: the string ID, or the long ID in decimal.
+	 */
+	public String getName(int internalID) {
+		return names != null ? names[internalID] : Long.toString(ids[internalID]);
+	}
+
+	/**
+	 * Returns the number of IDs.
+	 */
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,55 @@
+/**
+ * A built index: the similarity searcher together with the data it was built from. A snapshot is not changed after it
+ * is built (the searchers only replace their internal caches, see PairNeighbors), so any number of threads can query it
+ * without locks. A rebuild produces a new snapshot, which is published by replacing a reference; queries that already
+ * got the old snapshot finish on it.
+ */
+public class IndexSnapshot {
+
+	final long version;
+	final SimilaritySearcher searcher;
+	final double threshold;
+	// movies mode
+	final MovieHandler ratings;
+	final ItemNeighbors items;
+	// documents mode
+	final DocumentHandler documents;
+
+	public IndexSnapshot(long version, SimilaritySearcher searcher, double threshold, MovieHandler ratings, ItemNeighbors items,
+			DocumentHandler documents) {
+		this.version = version;
+		this.searcher = searcher;
+		this.threshold = threshold;
+		this.ratings = ratings;
+		this.items = items;
+		this.documents = documents;
+	}
+
+	/**
+	 * Build a snapshot through the MovieRunner or DocumentRunner, and compute the pairs that the searcher computes
+	 * lazily, so the first queries don't have to.
+	 * The runners keep their state in static fields, so builds are serialized.
+	 * @param mode movies or documents
+	 * @param args the arguments for the MovieRunner or DocumentRunner
+	 * @param threshold default threshold (movies mode uses the -threshold of the MovieRunner)
+	 * @param version version number of the snapshot
+	 */
+	public static synchronized IndexSnapshot build(String mode, String[] args, double threshold, long version) {
+		IndexSnapshot snapshot;
+		if (mode.equals("movies")) {
+			SimilaritySearcher searcher = MovieRunner.constructSimilaritySearcher(args);
+			snapshot = new IndexSnapshot(version, searcher, MovieRunner.threshold, MovieRunner.ratings, MovieRunner.items, null);
+		}else if (mode.equals("documents")) {
+			SimilaritySearcher searcher = DocumentRunner.constructSimilaritySearcher(args);
+			snapshot = new IndexSnapshot(version, searcher, threshold, null, null, DocumentRunner.documents);
+		}else{
+			throw new Error("The mode should either be movies or documents");
+		}
+		// item based neighbors are already precomputed
+		if (snapshot.items == null) {
+			snapshot.searcher.getNeighborsAboveThreshold(0, snapshot.threshold);
+		}
+		return snapshot;
+	}
+
+}
@@ -0,0 +1,128 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Item-based neighbors: the most similar movies of every movie, precomputed once with a similarity searcher over the
+ * movie to set mapping (see MovieHandler.getItemMapping()).
+ *
+ * The neighbor lists are kept in primitive arrays, the neighbors of internal movie m are the entries offsets[m] to
+ * offsets[m+1], sorted on internal movie ID. Predicting a rating then only intersects the ratings of the user with the
+ * short neighbor list of the movie, instead of searching similar users at query time.
+ */
+public class ItemNeighbors {
+
+	MovieHandler ratings;
+	int[] offsets;
+	int[] neighborMovies;
+	float[] similarities;
+
+	/**
+	 * Precompute the neighbors of all movies.
+	 * @param ratings the ratings
+	 * @param searcher similarity searcher over ratings.getItemMapping()
+	 * @param threshold only movies with a similarity above the threshold are neighbors
+	 * @param maxNeighbors number of most similar neighbors that is kept per movie
+	 */
+	public ItemNeighbors(MovieHandler ratings, SimilaritySearcher searcher, double threshold, int maxNeighbors) {
+		this.ratings = ratings;
+		int numMovies = ratings.getNumMovies();
+		int[] movies = new int[numMovies];
+		for (int m = 0; m < numMovies; m++) {
+			movies[m] = m;
+		}
+		Map<Integer, Set<Neighbor>> neighbors = searcher.getNeighborsAboveThreshold(movies, threshold);
+
+		offsets = new int[numMovies + 1];
+		neighborMovies = new int[numMovies * Math.min(maxNeighbors, 16)];
+		similarities = new float[neighborMovies.length];
+		int size = 0;
+		for (int m = 0; m < numMovies; m++) {
+			offsets[m] = size;
+			Set<Neighbor> set = neighbors.get(m);
+			Neighbor[] top = set == null ? new Neighbor[0] : set.toArray(new Neighbor[0]);
+			// most similar first, ties on movie ID
+			Arrays.sort(top, (a, b) -> a.getSimilarity() != b.getSimilarity()
+					? Double.compare(b.getSimilarity(), a.getSimilarity()) : Integer.compare(a.getUserID(), b.getUserID()));
+			int kept = 0;
+			for (int n = 0; n < top.length && kept < maxNeighbors; n++) {
+				if (top[n].getUserID() != m) {
+					top[kept++] = top[n];
+				}
+			}
+			Arrays.sort(top, 0, kept, (a, b) -> Integer.compare(a.getUserID(), b.getUserID()));
+
+			if (size + kept > neighborMovies.length) {
+				int capacity = Math.max(size + kept, neighborMovies.length * 2);
+				neighborMovies = Arrays.copyOf(neighborMovies, capacity);
+				similarities = Arrays.copyOf(similarities, capacity);
+			}
+			for (int n = 0; n < kept; n++) {
+				neighborMovies[size] = top[n].getUserID();
+				similarities[size] = (float) top[n].getSimilarity();
+				size++;
+			}
+		}
+		offsets[numMovies] = size;
+		neighborMovies = Arrays.copyOf(neighborMovies, size);
+		similarities = Arrays.copyOf(similarities, size);
+	}
+
+	/**
+	 * Returns the number of neighbors of a movie.
+	 * @param internalID internal movie ID
+	 */
+	public int getNumNeighbors(int internalID) {
+		return offsets[internalID + 1] - offsets[internalID];
+	}
+
+	/**
+	 * Returns the neighbors of a movie, sorted on internal movie ID.
+	 * @param internalID internal movie ID
+	 */
+	public Neighbor[] getNeighbors(int internalID) {
+		Neighbor[] neighbors = new Neighbor[getNumNeighbors(internalID)];
+		for (int n = 0; n < neighbors.length; n++) {
+			neighbors[n] = new Neighbor(neighborMovies[offsets[internalID] + n], similarities[offsets[internalID] + n]);
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Predict the rating of user with external id externUserID for movie with id movieID.
+	 * The baseline is the global mean, plus the user and movie deviations from it (like MovieRunner.predictRating).
+	 * The deviation of the user's ratings of the neighbor movies from their baseline is added, weighted by similarity.
+	 * @param externUserID external id of user whose rating should be predict
+	 * @param movieID movie for which the rating should be predicted
+	 * @return the predicted rating, the baseline if the user rated none of the neighbors of the movie
+	 */
+	public double predictRating(int externUserID, int movieID) {
+		int internalUser = ratings.getInternalUserID(externUserID);
+		int internalMovie = ratings.getInternalMovieID(movieID);
+		double mu = ratings.getMovieAverageRating();
+		double usrDev = ratings.getAverageRating(externUserID) - mu;
+		double mvAvg = ratings.getMovieAverageRating(movieID) - mu;
+
+		double neighborDev = 0;
+		double similaritySum = 0;
+		if (internalMovie >= 0) {
+			int start = offsets[internalMovie];
+			int end = offsets[internalMovie + 1];
+			for (int row = ratings.getRatingStart(internalUser); row < ratings.getRatingEnd(internalUser); row++) {
+				int rated = ratings.getRatingInternalMovieID(row);
+				int n = Arrays.binarySearch(neighborMovies, start, end, rated);
+				if (n >= 0) {
+					double baseline = mu + usrDev + ratings.getInternalMovieAverageRating(rated) - mu;
+					neighborDev += similarities[n] * (ratings.getRating(row) - baseline);
+					similaritySum += similarities[n];
+				}
+			}
+		}
+		if (similaritySum > 0) {
+			neighborDev /= similaritySum;
+		}
+
+		return mu + usrDev + mvAvg + neighborDev;
+	}
+
+}
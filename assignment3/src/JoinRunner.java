@@ -0,0 +1,117 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The JoinRunner finds the pairs of a new collection (a batch of documents or users) and an indexed collection with a
+ * similarity above the threshold. The indexed collection is read and indexed like by the DocumentRunner or MovieRunner,
+ * the new collection is only probed against the index (see SimilaritySearcher.join), pairs within one collection are
+ * not searched.
+ * Example commands:
+ * 				java JoinRunner -mode documents -threshold 0.5 -queryCorpus today.txt -dir articles -maxFiles 10000 -method lsh -shingleLength 5 -numHashes 100 -numBands 20
+ * 				java JoinRunner -mode movies -threshold 0.3 -queryFile ../new.train -trainingFile ../r1.train -method lsh -numHashes 100 -numBands 20
+ * The new documents are read from -queryDir (files 0 to -queryMaxFiles) or -queryCorpus (see CorpusReader, -queryFormat
+ * like -format), the new users from the ratings file -queryFile. The other arguments are those of the DocumentRunner or
+ * MovieRunner (depending on the mode), e.g. -method bf for an exact join.
+ * The pairs are written as (new id, indexed id, similarity) on decreasing similarity, to -output or stdout; with
+ * -order none in the order they are found. Users are identified by their external ID. Indexed documents are identified
+ * like by the DocumentRunner (by name with -ids names), new documents by their record names in -queryCorpus, or in
+ * -queryDir by number (by file name with -ids names).
+ */
+public class JoinRunner {
+
+	public static void main(String[] args) throws IOException {
+		String mode = "documents";
+		double threshold = 0.5;
+		String queryDir = null;
+		String queryCorpus = null;
+		String queryFormat = null;
+		int queryMaxFiles = -1;
+		String queryFile = null;
+		String outputFile = null;
+		String order = "sorted";
+
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String arg = args[i];
+			if (arg.equals("-mode")) {
+				mode = args[i+1];
+			}else if (arg.equals("-threshold")) {
+				threshold = Double.parseDouble(args[i+1]);
+			}else if (arg.equals("-queryDir")) {
+				queryDir = args[i+1];
+			}else if (arg.equals("-queryCorpus")) {
+				queryCorpus = args[i+1];
+			}else if (arg.equals("-queryFormat")) {
+				queryFormat = args[i+1];
+			}else if (arg.equals("-queryMaxFiles")) {
+				queryMaxFiles = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-queryFile")) {
+				queryFile = args[i+1];
+			}else if (arg.equals("-output")) {
+				outputFile = args[i+1];
+			}else if (arg.equals("-order")) {
+				if (!args[i+1].equals("sorted") && !args[i+1].equals("none")){
+					System.err.println("The output order should either be sorted or none");
+				}
+				order = args[i+1];
+			}
+			i += 2;
+		}
+
+		long startTime = System.currentTimeMillis();
+		SimilaritySearcher searcher;
+		Map<Integer, Set<Integer>> queries;
+		IdDictionary queryNames = null; // null to write the numbers of the queries
+		IdDictionary indexNames;
+		if (mode.equals("documents")) {
+			searcher = DocumentRunner.constructSimilaritySearcher(args);
+			System.out.println("Indexed " + searcher.objectMapping.size() + " documents, took " + (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+			CorpusReader corpus = null;
+			if (queryCorpus != null) {
+				if (queryFormat == null) {
+					queryFormat = new File(queryCorpus).isDirectory() ? "dir" : queryCorpus.endsWith(".tar") ? "tar" : queryCorpus.endsWith(".jsonl") ? "jsonl" : "lines";
+				}
+				corpus = new CorpusReader(queryCorpus, queryFormat, null);
+			}else if (queryDir == null) {
+				throw new Error("Either -queryDir or -queryCorpus is needed in documents mode");
+			}else if (DocumentRunner.documents.getNames() != null) {
+				// the indexed documents are named, the files of the query directory are read by name too
+				corpus = new CorpusReader(queryDir, "dir", null);
+			}
+			queries = DocumentRunner.documents.shingleCollection(queryDir, corpus, queryMaxFiles);
+			if (corpus != null) {
+				queryNames = DocumentHandler.recordNames(corpus, queryMaxFiles);
+			}
+			indexNames = DocumentRunner.documents.getNames();
+		}else if (mode.equals("movies")) {
+			if (queryFile == null) {
+				throw new Error("-queryFile is needed in movies mode");
+			}
+			searcher = MovieRunner.constructSimilaritySearcher(args);
+			System.out.println("Indexed " + searcher.objectMapping.size() + " users, took " + (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+			queries = MovieRunner.ratings.toQuerySets(RatingCache.load(queryFile));
+			indexNames = MovieRunner.ratings.getUsers();
+		}else{
+			throw new Error("The mode should either be movies or documents");
+		}
+
+		startTime = System.currentTimeMillis();
+		long numPairs;
+		try (PairWriter writer = new PairWriter(outputFile, queryNames, indexNames)) {
+			if (order.equals("sorted")) {
+				try (ExternalPairSorter sorter = new ExternalPairSorter()) {
+					searcher.join(queries, threshold, sorter);
+					sorter.writeTo(writer);
+				}
+			}else{
+				searcher.join(queries, threshold, writer);
+			}
+			numPairs = writer.getNumPairs();
+		}
+		System.out.println("Joined " + queries.size() + " queries, " + numPairs + " pairs, took "
+				+ (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+	}
+
+}
@@ -8,6 +8,10 @@ import java.util.Random;
 import java.util.Set;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -21,8 +25,19 @@ import java.util.Iterator;
  */
 public class LSH extends SimilaritySearcher{
   List<Map<String, Set<Integer>>> bandToBuckets;
-  int fp = 0; // False Positives
-  Set<SimilarPair> similarPairs;
+  // neighbors of every object, computed on the first single object query, replaced (not changed) for a lower threshold
+  volatile PairNeighbors pairNeighbors;
+  // kept to compute signatures of sets that are not part of the objectMapping
+  int[][] hashCoefficients;
+  int prime;
+  int numValues;
+  int numHashes;
+  int numBands;
+  int[][] signatureMatrix;
+  // set when the signatures were computed elsewhere, see LSH(Map, int[][], int, MinHasher, ObjectSets, int)
+  MinHasher hasher;
+  ObjectSets sets;
+  int numThreads = 1;
 
   /**
    * Construct an LSH similarity searcher.
@@ -34,12 +49,85 @@ public class LSH extends SimilaritySearcher{
    * @param rand should be used to generate any random numbers needed
    */
   public LSH(Map<Integer, Set<Integer>> objectMapping, int numHashes, int numBands, int numValues, Random rand){
+    this(objectMapping, numHashes, numBands, numValues, rand, 1);
+  }
+
+  /**
+   * Construct an LSH similarity searcher that builds its bands, and verifies candidates, with numThreads threads.
+   * The result is the same as with a single thread.
+   */
+  public LSH(Map<Integer, Set<Integer>> objectMapping, int numHashes, int numBands, int numValues, Random rand, int numThreads){
+    this(objectMapping, numHashes, numBands, numValues, rand, numThreads, null);
+  }
+
+  /**
+   * Construct an LSH similarity searcher that verifies candidates on the given sets (e.g. CompressedSets) instead of
+   * on the objectMapping, which can then be a view on these sets.
+   */
+  public LSH(Map<Integer, Set<Integer>> objectMapping, int numHashes, int numBands, int numValues, Random rand, int numThreads, ObjectSets sets){
     super(objectMapping);
+    this.numThreads = numThreads;
+    this.sets = sets;
     
-    int prime  = Primes.findLeastPrimeNumber(numValues);
-    int[][] hashValues = LSH.constructHashTable(numHashes, numValues, prime, rand);
-    int[][] signatureMatrix = LSH.constructSignatureMatrix(objectMapping, hashValues);
-    bandToBuckets = LSH.lsh(signatureMatrix, numBands);
+    this.prime = Primes.findLeastPrimeNumber(numValues);
+    this.numValues = numValues;
+    this.numHashes = numHashes;
+    this.numBands = numBands;
+    hashCoefficients = LSH.constructHashCoefficients(numHashes, prime, rand);
+    int[][] hashValues = LSH.constructHashTable(hashCoefficients, numValues, prime);
+    signatureMatrix = LSH.constructSignatureMatrix(objectMapping, hashValues);
+    bandToBuckets = LSH.lsh(signatureMatrix, numBands, numThreads);
+  }
+
+  /**
+   * Construct an LSH similarity searcher from a signature matrix that was computed while the objects were streamed.
+   * 
+   * @param objectMapping objects and their set representations of which similarity should be searched
+   * @param signatureMatrix the (numHashes x numObjects) signature matrix
+   * @param numBands number of bands to use during locality sensitive hashing
+   * @param hasher the hasher that computed the signatures, used to sign query sets
+   * @param sets if not null, candidates are verified on these sets instead of on the objectMapping
+   * @param numThreads number of threads to build the bands and verify candidates with
+   */
+  public LSH(Map<Integer, Set<Integer>> objectMapping, int[][] signatureMatrix, int numBands, MinHasher hasher, ObjectSets sets, int numThreads){
+    super(objectMapping);
+    this.numThreads = numThreads;
+
+    this.numHashes = signatureMatrix.length;
+    this.numBands = numBands;
+    this.signatureMatrix = signatureMatrix;
+    this.hasher = hasher;
+    this.sets = sets;
+    bandToBuckets = LSH.lsh(signatureMatrix, numBands, numThreads);
+  }
+
+  /**
+   * Construct an LSH similarity searcher that reuses the first numHashes signature rows of another searcher, so other
+   * band settings can be tried without recomputing the signatures. The rows are shared, not copied.
+   *
+   * @param signatures searcher with at least numHashes signature rows
+   * @param numHashes number of signature rows to use
+   * @param numBands number of bands to use during locality sensitive hashing
+   */
+  public LSH(LSH signatures, int numHashes, int numBands){
+    super(signatures.objectMapping);
+    if (numHashes > signatures.numHashes) {
+      throw new IllegalArgumentException("Only " + signatures.numHashes + " signature rows are available, not " + numHashes);
+    }
+    this.numThreads = signatures.numThreads;
+
+    this.prime = signatures.prime;
+    this.numValues = signatures.numValues;
+    this.numHashes = numHashes;
+    this.numBands = numBands;
+    if (signatures.hashCoefficients != null) {
+      hashCoefficients = new int[][] {
+          Arrays.copyOf(signatures.hashCoefficients[0], numHashes), Arrays.copyOf(signatures.hashCoefficients[1], numHashes)};
+    }
+    this.signatureMatrix = Arrays.copyOf(signatures.signatureMatrix, numHashes);
+    this.hasher = signatures.hasher;
+    this.sets = signatures.sets;
+    bandToBuckets = LSH.lsh(signatureMatrix, numBands, numThreads);
   }
 
   /**
@@ -60,7 +148,17 @@ public class LSH extends SimilaritySearcher{
    * @return the (numValues x numHashes) matrix of hash values
    */
   public static int[][] constructHashTable(int numHashes, int numValues, int prime, Random rand) {
-    int[][] hashes = new int[numValues][numHashes];
+    return constructHashTable(constructHashCoefficients(numHashes, prime, rand), numValues, prime);
+  }
+
+  /**
+   * Draw the coefficients (a, b) of the universal hash functions ((a*i + b) % prime) % numValues.
+   * @param numHashes number of hash functions
+   * @param prime prime needed for universal hashing
+   * @param rand object to generate random numbers
+   * @return (2 x numHashes) matrix, row 0 holds the a's and row 1 the b's
+   */
+  public static int[][] constructHashCoefficients(int numHashes, int prime, Random rand) {
     int[] a = new int[numHashes];
     int[] b = new int[numHashes];
 
@@ -71,18 +169,43 @@ public class LSH extends SimilaritySearcher{
       b[j] = rand.nextInt(prime);
     }
 
+    return new int[][] {a, b};
+  }
+
+  /**
+   * Construct the table of hash values from previously drawn coefficients.
+   * @param hashCoefficients coefficients as returned by constructHashCoefficients
+   * @param numValues number of unique values that occur in the object set representations
+   * @param prime prime needed for universal hashing
+   * @return the (numValues x numHashes) matrix of hash values
+   */
+  public static int[][] constructHashTable(int[][] hashCoefficients, int numValues, int prime) {
+    int numHashes = hashCoefficients[0].length;
+    int[][] hashes = new int[numValues][numHashes];
+
     for (int i = 0; i < numValues; i++) {
       for (int j = 0; j < numHashes; j++) {
-        hashes[i][j] = ((a[j] * i + b[j]) % prime) % numValues;
+        hashes[i][j] = hash(hashCoefficients, j, i, prime, numValues);
       }
     }
     
     return hashes;
   }
 
+  /**
+   * Apply hash function j to row number i.
+   */
+  static int hash(int[][] hashCoefficients, int j, int i, int prime, int numValues) {
+    return ((hashCoefficients[0][j] * i + hashCoefficients[1][j]) % prime) % numValues;
+  }
+
   /**
    * Constructing the signature matrix.
    * 
+   * The signature of one object is accumulated in a contiguous column, so the update for one row of the characteristic
+   * matrix is an element-wise minimum of two int arrays (see minInto), and the column is written to the matrix once per
+   * object instead of once per row.
+   * 
    * @param objectMapping objects and their set representations for which the signature matrix should be constructed
    * @param hashValues (numValues x numHashes) matrix of hash values
    * @return the (numHashes x numObjects) signature matrix
@@ -91,13 +214,45 @@ public class LSH extends SimilaritySearcher{
     int numHashes = hashValues[0].length;
     int numObjects = objectMapping.size(); // NOT equal to numValues in constructHashTable
 
+    int[][] signatureMatrix = new int[numHashes][numObjects];
+    int[] column = new int[numHashes];
+
+    for (int obj = 0; obj < numObjects; obj++) {
+      Arrays.fill(column, Integer.MAX_VALUE);
+      for (int r: objectMapping.get(obj)) {
+        minInto(column, hashValues[r]);
+      }
+      for (int i = 0; i < numHashes; i++) {
+        signatureMatrix[i][obj] = column[i];
+      }
+    }
+
+    return signatureMatrix;
+
+  }
+
+  /**
+   * Element-wise minimum, signature[i] = min(signature[i], hashes[i]).
+   * The minimum is branch-free, so it costs the same whether or not the signature changes.
+   */
+  static void minInto(int[] signature, int[] hashes) {
+    for (int i = 0; i < signature.length; i++) {
+      signature[i] = Math.min(signature[i], hashes[i]);
+    }
+  }
+
+  /**
+   * Construction of the signature matrix that updates one entry of the matrix at a time.
+   * Produces the same matrix as constructSignatureMatrix, it is kept as a reference for SignatureLoopBenchmark.
+   */
+  public static int[][] constructSignatureMatrixByEntry(Map<Integer, Set<Integer>> objectMapping, int[][] hashValues) {
+    int numHashes = hashValues[0].length;
+    int numObjects = objectMapping.size();
+
     // initialize it to max int values
     int[][] signatureMatrix = new int[numHashes][numObjects];
-    int[] max_values = new int[numObjects];
-    Arrays.fill(max_values, Integer.MAX_VALUE);
-    // fill would use the same reference for each row
     for (int i = 0; i < numHashes; i++) {
-      signatureMatrix[i] = max_values.clone();
+      Arrays.fill(signatureMatrix[i], Integer.MAX_VALUE);
     }
 
     for (int obj = 0; obj < numObjects; obj++) {
@@ -113,7 +268,6 @@ public class LSH extends SimilaritySearcher{
     }
 
     return signatureMatrix;
-
   }
 
   /**
@@ -127,31 +281,207 @@ public class LSH extends SimilaritySearcher{
     List<Map<String, Set<Integer>>> bandToBuckets =
         new ArrayList<Map<String, Set<Integer>>>();
 
+    for (int band = 0; band < numBands; band++) {
+      bandToBuckets.add(band, lshBand(signatureMatrix, numBands, band));
+    }
+
+    return bandToBuckets;
+
+  }
+
+  /**
+   * Perform locality sensitive hashing with the bands built concurrently, each into its own hash table.
+   * 
+   * @param signatureMatrix previously constructed signature matrix
+   * @param numBands the number of bands to use
+   * @param numThreads number of threads
+   * @return the same mapping as lsh(signatureMatrix, numBands)
+   */
+  public static List<Map<String, Set<Integer>>> lsh(final int[][] signatureMatrix, final int numBands, int numThreads) {
+    if (numThreads <= 1) {
+      return lsh(signatureMatrix, numBands);
+    }
+    List<Map<String, Set<Integer>>> bandToBuckets =
+        new ArrayList<Map<String, Set<Integer>>>();
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numBands));
+    try {
+      List<Future<Map<String, Set<Integer>>>> bands = new ArrayList<Future<Map<String, Set<Integer>>>>();
+      for (int band = 0; band < numBands; band++) {
+        final int b = band;
+        bands.add(pool.submit(() -> lshBand(signatureMatrix, numBands, b)));
+      }
+      for (Future<Map<String, Set<Integer>>> band : bands) {
+        bandToBuckets.add(band.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new Error("Interrupted while hashing bands", e);
+    } catch (ExecutionException e) {
+      throw new Error("Could not hash bands", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    return bandToBuckets;
+  }
+
+  /**
+   * Hash all objects of one band into buckets.
+   */
+  private static Map<String, Set<Integer>> lshBand(int[][] signatureMatrix, int numBands, int band) {
+    Map<String, Set<Integer>> buckets = new HashMap<String, Set<Integer>>();
     int rowsPerBand = signatureMatrix.length / numBands;
+    int bandStart = band * rowsPerBand;
+    for (int obj = 0; obj < signatureMatrix[0].length; obj++) {
+      String key = bandKey(signatureMatrix, bandStart, rowsPerBand, obj);
+      Set<Integer> bucket = buckets.get(key);
+      if (bucket == null) {
+        bucket = new HashSet<Integer>();
+        buckets.put(key, bucket);
+      }
+      bucket.add(obj);
+    }
+    return buckets;
+  }
 
-    int bandStart = 0;
-    for (int band = 0; band < numBands; band++) {
-      bandToBuckets.add(band, new HashMap<String, Set<Integer>>());
-      bandStart = band * rowsPerBand;
-      // easy parallel traversal?
-      for (int obj = 0; obj < signatureMatrix[0].length; obj++) {
-        // 10 = average length of hash in digits
-        StringBuilder sb = new StringBuilder(10 * rowsPerBand);
-        for (int r = 0; r < rowsPerBand; r++) {
-          sb.append(signatureMatrix[bandStart+r][obj]);
-        }
-        String key = sb.toString();
-        if (bandToBuckets.get(band).get(key) == null) {
-          bandToBuckets.get(band).put(key, new HashSet<Integer>());
+  /**
+   * The bucket key of object obj in the band starting at row bandStart.
+   * The rows are separated, so two objects have the same key exactly when their rows of the band are equal
+   * (see firstSharedBand).
+   */
+  static String bandKey(int[][] signatureMatrix, int bandStart, int rowsPerBand, int obj) {
+    // 10 = average length of hash in digits
+    StringBuilder sb = new StringBuilder(11 * rowsPerBand);
+    for (int r = 0; r < rowsPerBand; r++) {
+      if (r > 0) {
+        sb.append(',');
+      }
+      sb.append(signatureMatrix[bandStart+r][obj]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Compute the signature of a set that is not part of the objectMapping, using the same hash functions.
+   * Values outside of the range of the characteristic matrix can not be shared with any object and are ignored.
+   * @param set the set representation
+   * @return (numHashes x 1) signature
+   */
+  public int[][] signature(Set<Integer> set) {
+    int[][] signature = new int[numHashes][1];
+    if (hasher != null) {
+      int[] column = hasher.signature(set);
+      for (int i = 0; i < numHashes; i++) {
+        signature[i][0] = column[i];
+      }
+      return signature;
+    }
+    for (int i = 0; i < numHashes; i++) {
+      signature[i][0] = Integer.MAX_VALUE;
+    }
+    for (int r : set) {
+      if (r < 0 || r >= numValues) {
+        continue;
+      }
+      for (int i = 0; i < numHashes; i++) {
+        int h_iofr = hash(hashCoefficients, i, r, prime, numValues);
+        if (h_iofr < signature[i][0]) {
+          signature[i][0] = h_iofr;
         }
-        bandToBuckets.get(band).get(key).add(obj); 
       }
     }
+    return signature;
+  }
 
-    return bandToBuckets;
+  /**
+   * Get the objects that share at least one bucket with the given set.
+   * @param set the set representation of the query
+   * @return ids of the candidate objects
+   */
+  public Set<Integer> getCandidates(Set<Integer> set) {
+    int[][] signature = signature(set);
+    int rowsPerBand = numHashes / numBands;
+    Set<Integer> candidates = new HashSet<Integer>();
+    for (int band = 0; band < numBands; band++) {
+      Set<Integer> bucket = bandToBuckets.get(band).get(bandKey(signature, band * rowsPerBand, rowsPerBand, 0));
+      if (bucket != null) {
+        candidates.addAll(bucket);
+      }
+    }
+    return candidates;
+  }
 
+  /**
+   * Get the objects with similarity above thr to a set that is not part of the objectMapping (approximate).
+   * Only objects sharing a bucket with the set are verified.
+   */
+  @Override
+  public Set<Neighbor> getNeighborsAboveThreshold(Set<Integer> set, double thr) {
+    Set<Neighbor> neighbors = new HashSet<Neighbor>();
+    int[] sorted = sets != null ? toSortedArray(set) : null;
+    for (int candidate : getCandidates(set)) {
+      double similarity = sets != null
+          ? jaccardSimilarity(sorted, sets.get(candidate))
+          : jaccardSimilarity(set, objectMapping.get(candidate));
+      if (similarity > thr) {
+        neighbors.add(new Neighbor(candidate, similarity));
+      }
+    }
+    return neighbors;
   }
+
+  /**
+   * Similarity join of query sets against the objectMapping (approximate): every query is signed with the hash
+   * functions of the index and only verified against the objects it shares a bucket with, so the index is not rebuilt
+   * and the cost grows with the number of queries. With more than one thread, the queries are verified concurrently
+   * in chunks, and the pairs are passed to the sink in the order of the queries.
+   */
+  @Override
+  public void join(Map<Integer, Set<Integer>> queries, final double thr, PairSink sink) {
+    final List<Map.Entry<Integer, Set<Integer>>> entries = new ArrayList<Map.Entry<Integer, Set<Integer>>>(queries.entrySet());
+    if (numThreads <= 1) {
+      for (Map.Entry<Integer, Set<Integer>> query : entries) {
+        for (Neighbor neighbor : getNeighborsAboveThreshold(query.getValue(), thr)) {
+          sink.accept(query.getKey(), neighbor.getUserID(), neighbor.getSimilarity());
+        }
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      int chunk = 64;
+      List<Future<BandResult>> pending = new ArrayList<Future<BandResult>>();
+      for (int start = 0; start < entries.size(); start += chunk) {
+        final int from = start;
+        final int to = Math.min(entries.size(), start + chunk);
+        pending.add(pool.submit(() -> {
+          BandResult result = new BandResult();
+          for (Map.Entry<Integer, Set<Integer>> query : entries.subList(from, to)) {
+            for (Neighbor neighbor : getNeighborsAboveThreshold(query.getValue(), thr)) {
+              result.accept(query.getKey(), neighbor.getUserID(), neighbor.getSimilarity());
+            }
+          }
+          return result;
+        }));
+      }
+      for (int i = 0; i < pending.size(); i++) {
+        pending.set(i, null).get().writeTo(sink);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new Error("Interrupted while joining queries", e);
+    } catch (ExecutionException e) {
+      throw new Error("Could not join queries", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   private double jaccard(int first, int second) {
+    if (sets != null) {
+      return sets.jaccard(first, second);
+    }
     Set<Integer> intersection = new HashSet<Integer>(objectMapping.get(first));
     intersection.retainAll(objectMapping.get(second));
     Set<Integer> union = new HashSet<Integer>(objectMapping.get(first));
@@ -165,55 +495,301 @@ public class LSH extends SimilaritySearcher{
    */
   @Override
   public Set<SimilarPair> getSimilarPairsAboveThreshold(double threshold) {
-    List<SimilarPair> cands = new ArrayList<SimilarPair>();
+    final Set<SimilarPair> result = new HashSet<SimilarPair>();
+    getSimilarPairsAboveThreshold(threshold, new PairSink() {
+      @Override
+      public void accept(int id1, int id2, double similarity) {
+        result.add(new SimilarPair(id1, id2, similarity));
+      }
+    });
+    return result;
+  }
 
-    for (Map<String, Set<Integer>> band : bandToBuckets) {
-      for (Set<Integer> bucket : band.values()) {
-        Iterator<Integer> it = (new HashSet<Integer>(bucket)).iterator();
-        while (it.hasNext()) {
-          int first = it.next();
-          it.remove(); // Don't compare to itself (or previously viewed)
-          for (int second : bucket) {
+  /**
+   * Streams the pairs with similarity above threshold (approximate) to a sink.
+   * A pair is passed in the first band in which both objects share a bucket, later bands skip it,
+   * so no set of already passed pairs has to be kept.
+   * 
+   * With more than one thread, the bands are verified concurrently into per-band buffers that are passed to the sink in
+   * band order, so the sink sees the same pairs in the same order as with a single thread.
+   */
+  @Override
+  public void getSimilarPairsAboveThreshold(final double threshold, PairSink sink) {
+    int tp = 0;
+    int fp = 0; // False Positives
+
+    if (numThreads <= 1) {
+      for (int b = 0; b < numBands; b++) {
+        BandResult counts = new BandResult();
+        verifyBand(b, threshold, sink, counts);
+        tp += counts.tp;
+        fp += counts.fp;
+      }
+    }else{
+      ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+      try {
+        // submit a window of bands at a time, so at most 2 * numThreads band buffers are held
+        List<Future<BandResult>> pending = new ArrayList<Future<BandResult>>();
+        int next = 0;
+        for (int b = 0; b < numBands; b++) {
+          while (next < numBands && next < b + 2 * numThreads) {
+            final int band = next++;
+            pending.add(pool.submit(() -> {
+              BandResult result = new BandResult();
+              verifyBand(band, threshold, result, result);
+              return result;
+            }));
+          }
+          BandResult result = pending.set(b, null).get();
+          result.writeTo(sink);
+          tp += result.tp;
+          fp += result.fp;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new Error("Interrupted while verifying candidates", e);
+      } catch (ExecutionException e) {
+        throw new Error("Could not verify candidates", e.getCause());
+      } finally {
+        pool.shutdown();
+      }
+    }
+
+    System.err.println("True Positives: " + tp + "   False Positives: " + fp);
+  }
+
+  /**
+   * Anytime search for the pairs with similarity above threshold (approximate).
+   * The buckets of all bands are verified from small to large: the members of a small bucket share a rare band, so
+   * they are the most likely to be similar and the cheapest to verify, while the huge buckets of common bands come
+   * last. A pair is only passed in the first verified bucket that both objects share: before its similarity is
+   * computed, the signature rows are compared in the bands of which the bucket of first was verified earlier. So every
+   * pair that is verified is passed at once, and without deadline the pairs are the same as those of
+   * getSimilarPairsAboveThreshold(double, PairSink) (in another order).
+   * The covered candidates are the ordered pairs (including an object with itself) of the verified buckets.
+   * The buckets are verified by the calling thread.
+   */
+  @Override
+  public void getSimilarPairsAboveThreshold(double threshold, PairSink sink, SearchBudget budget) {
+    int rowsPerBand = numHashes / numBands;
+    List<Set<Integer>> buckets = new ArrayList<Set<Integer>>();
+    List<Integer> bands = new ArrayList<Integer>();
+    for (int b = 0; b < numBands; b++) {
+      for (Set<Integer> bucket : bandToBuckets.get(b).values()) {
+        buckets.add(bucket);
+        bands.add(b);
+      }
+    }
+    // bucket size in the high bits, so sorting orders the buckets on size
+    long[] order = new long[buckets.size()];
+    long total = 0;
+    for (int i = 0; i < order.length; i++) {
+      long size = buckets.get(i).size();
+      order[i] = size << 32 | i;
+      total += size * size;
+    }
+    Arrays.sort(order);
+    // ranks[b][obj] is the position in the order of the bucket of obj in band b
+    int[][] ranks = new int[numBands][signatureMatrix[0].length];
+    for (int p = 0; p < order.length; p++) {
+      for (int member : buckets.get((int) order[p])) {
+        ranks[bands.get((int) order[p])][member] = p;
+      }
+    }
+
+    long covered = 0;
+    budget.progress(covered, total);
+    for (int p = 0; p < order.length; p++) {
+      Set<Integer> bucket = buckets.get((int) order[p]);
+      for (int first : bucket) {
+        if (budget.isExhausted()) {
+          return;
+        }
+        for (int second : bucket) {
+          if (!sharedEarlier(first, second, p, ranks, rowsPerBand)) {
             double similarity = jaccard(first, second);
             if (similarity > threshold) {
-              cands.add(new SimilarPair(first, second, similarity));
-            } else {
-              fp++;
+              sink.accept(first, second, similarity);
             }
           }
         }
+        covered += bucket.size();
+        budget.progress(covered, total);
       }
     }
+    budget.finish();
+  }
 
-    Set<SimilarPair> result = new HashSet<SimilarPair>(cands);
+  /**
+   * True if two objects share a bucket that comes before position p in the order of the anytime search.
+   */
+  private boolean sharedEarlier(int first, int second, int p, int[][] ranks, int rowsPerBand) {
+    for (int b = 0; b < numBands; b++) {
+      if (ranks[b][first] < p && sharesBand(first, second, b, rowsPerBand)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-    System.out.println("True Positives: " + result.size() + "   False Positives: " + fp);
-    return result;
+  /**
+   * Verify the candidates of one band, passing the pairs that are first found in this band to out.
+   * The true and false positives of the band are counted in counts.
+   */
+  private void verifyBand(int b, double threshold, PairSink out, BandResult counts) {
+    int rowsPerBand = numHashes / numBands;
+    for (Set<Integer> bucket : bandToBuckets.get(b).values()) {
+      Iterator<Integer> it = (new HashSet<Integer>(bucket)).iterator();
+      while (it.hasNext()) {
+        int first = it.next();
+        it.remove(); // Don't compare to itself (or previously viewed)
+        for (int second : bucket) {
+          double similarity = jaccard(first, second);
+          if (similarity > threshold) {
+            if (firstSharedBand(first, second, rowsPerBand) == b) {
+              out.accept(first, second, similarity);
+              counts.tp++;
+            }
+          } else {
+            counts.fp++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Thread-local buffer of the pairs and counts of one band (or of a chunk of join queries).
+   */
+  private static class BandResult implements PairSink {
+    long[] pairs = new long[16];
+    double[] similarities = new double[16];
+    int size;
+    int tp;
+    int fp;
+
+    @Override
+    public void accept(int id1, int id2, double similarity) {
+      if (size == pairs.length) {
+        pairs = Arrays.copyOf(pairs, size * 2);
+        similarities = Arrays.copyOf(similarities, size * 2);
+      }
+      pairs[size] = SimilarPairList.pack(id1, id2);
+      similarities[size] = similarity;
+      size++;
+    }
+
+    void writeTo(PairSink sink) {
+      for (int i = 0; i < size; i++) {
+        sink.accept((int) (pairs[i] >>> 32), (int) pairs[i], similarities[i]);
+      }
+    }
+  }
+
+  /**
+   * Count the distinct pairs of (different) objects that share a bucket in at least one band, i.e. the number of
+   * candidate pairs that have to be verified.
+   */
+  public long countCandidatePairs() {
+    int rowsPerBand = numHashes / numBands;
+    long candidates = 0;
+    for (int b = 0; b < numBands; b++) {
+      for (Set<Integer> bucket : bandToBuckets.get(b).values()) {
+        for (int first : bucket) {
+          for (int second : bucket) {
+            if (first < second && firstSharedBand(first, second, rowsPerBand) == b) {
+              candidates++;
+            }
+          }
+        }
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * The first band in which two objects share a bucket, their signature rows of that band are equal.
+   * The rows are compared as ints, without building the bucket keys.
+   */
+  private int firstSharedBand(int first, int second, int rowsPerBand) {
+    for (int b = 0; b < numBands; b++) {
+      if (sharesBand(first, second, b, rowsPerBand)) {
+        return b;
+      }
+    }
+    return -1;
+  }
 
+  /**
+   * True if the signature rows of band b of two objects are equal, i.e. they share a bucket in band b.
+   */
+  private boolean sharesBand(int first, int second, int b, int rowsPerBand) {
+    int r = b * rowsPerBand;
+    int end = r + rowsPerBand;
+    while (r < end && signatureMatrix[r][first] == signatureMatrix[r][second]) {
+      r++;
+    }
+    return r == end;
   }
 
   /**
-   * Get the objects that have a similarity above threshold thr to the object identified by the given object id objID
+   * Get the objects that have a similarity above threshold thr to the object identified by the given object id objID.
+   * The similar pairs are computed on the first query and kept (see PairNeighbors). A query with a higher threshold
+   * filters these pairs, a query with a lower threshold recomputes them. Queries do not lock, any number of threads can
+   * query the same LSH.
    * @param objID the object of which we want to search neighbors
    * @param thr the similarity threshold
    * @return the objects with similarity above thr
    */
   @Override
   public Set<Neighbor> getNeighborsAboveThreshold(int internalID, double thr) {
-    Set<Neighbor> candidateNeighbors = new HashSet<Neighbor>();
-    if (similarPairs == null) {
-      similarPairs = getSimilarPairsAboveThreshold(thr);
+    PairNeighbors neighbors = pairNeighbors;
+    if (neighbors == null || !neighbors.covers(thr)) {
+      // concurrent queries may compute the same pairs, which is harmless, the last one is kept
+      neighbors = new PairNeighbors(getSimilarPairsAboveThreshold(thr), thr);
+      pairNeighbors = neighbors;
     }
-    
-    for (SimilarPair pair : similarPairs) {
-      if (internalID == pair.getId1()) {
-        candidateNeighbors.add(new Neighbor(pair.getId2(), pair.getSimilarity()));
-      } else if (internalID == pair.getId2()) {
-        candidateNeighbors.add(new Neighbor(pair.getId1(), pair.getSimilarity()));
+    return neighbors.get(internalID, thr);
+  }
+
+  /**
+   * Get the neighbors of many objects at once.
+   * The buckets of every band are walked once, and every queried member of a bucket gets the members of that bucket
+   * (including itself, like getSimilarPairsAboveThreshold) as candidates. A candidate pair is only verified the first time it is seen.
+   * Unlike getNeighborsAboveThreshold(int, double) this does not depend on previously computed similar pairs.
+   * @param objIds the objects of which we want to search neighbors
+   * @param thr the similarity threshold
+   * @return mapping of every object in objIds to its neighbors
+   */
+  @Override
+  public Map<Integer, Set<Neighbor>> getNeighborsAboveThreshold(int[] objIds, double thr) {
+    Map<Integer, Set<Neighbor>> neighbors = new HashMap<Integer, Set<Neighbor>>();
+    Map<Integer, Set<Integer>> verified = new HashMap<Integer, Set<Integer>>();
+    for (int objId : objIds) {
+      neighbors.put(objId, new HashSet<Neighbor>());
+      verified.put(objId, new HashSet<Integer>());
+    }
+
+    for (Map<String, Set<Integer>> band : bandToBuckets) {
+      for (Set<Integer> bucket : band.values()) {
+        for (int member : bucket) {
+          Set<Integer> seen = verified.get(member);
+          if (seen == null) {
+            continue; // not queried
+          }
+          for (int other : bucket) {
+            if (seen.add(other)) {
+              double similarity = jaccard(member, other);
+              if (similarity > thr) {
+                neighbors.get(member).add(new Neighbor(other, similarity));
+              }
+            }
+          }
+        }
       }
     }
 
-    return candidateNeighbors;
+    return neighbors;
   }
 
 
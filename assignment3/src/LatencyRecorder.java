@@ -0,0 +1,63 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples of an operation and reports percentiles over them.
+ * Recording is cheap and thread-safe, percentiles are computed on a copy of the samples.
+ */
+public class LatencyRecorder {
+
+	private final long[] samples; // nanoseconds, used as a ring buffer
+	private long count;
+
+	/**
+	 * @param capacity number of most recent samples to keep
+	 */
+	public LatencyRecorder(int capacity){
+		samples = new long[capacity];
+	}
+
+	public synchronized void record(long nanos){
+		samples[(int) (count % samples.length)] = nanos;
+		count++;
+	}
+
+	/**
+	 * Total number of recorded samples, including those that were overwritten.
+	 */
+	public synchronized long getCount(){
+		return count;
+	}
+
+	/**
+	 * Returns the given percentiles of the retained samples, in milliseconds.
+	 * @param percentiles values in [0, 100]
+	 * @return one latency per requested percentile, all 0 if nothing was recorded
+	 */
+	public double[] percentiles(double... percentiles){
+		long[] sorted;
+		synchronized (this) {
+			sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+		}
+		Arrays.sort(sorted);
+
+		double[] result = new double[percentiles.length];
+		if (sorted.length == 0){
+			return result;
+		}
+		for (int i = 0; i < percentiles.length; i++){
+			int rank = (int) Math.ceil(percentiles[i] / 100 * sorted.length) - 1;
+			rank = Math.max(0, Math.min(sorted.length - 1, rank));
+			result[i] = sorted[rank] / 1e6;
+		}
+		return result;
+	}
+
+	/**
+	 * One line summary: count, p50, p90, p99 and max latency.
+	 */
+	public String summary(){
+		double[] p = percentiles(50, 90, 99, 100);
+		return "count=" + getCount() + " p50=" + p[0] + "ms p90=" + p[1] + "ms p99=" + p[2] + "ms max=" + p[3] + "ms";
+	}
+
+}
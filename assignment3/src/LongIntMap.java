@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Map from long keys to int values on primitive arrays, with open addressing and linear probing, so no key or value
+ * is boxed. The table is at most half full and doubles when it gets fuller. Entries can not be removed.
+ * Key 0 marks an empty slot, so it is kept apart from the table.
+ */
+public class LongIntMap {
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private boolean hasZeroKey;
+	private int zeroValue;
+
+	public LongIntMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize number of entries the map can hold before it grows
+	 */
+	public LongIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(8, 2 * expectedSize - 1)) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(long key) {
+		int i = (int) SimHash.mix(key) & mask;
+		while (keys[i] != 0 && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the value of key, or missing if the key is not in the map.
+	 */
+	public int get(long key, int missing) {
+		if (key == 0) {
+			return hasZeroKey ? zeroValue : missing;
+		}
+		int i = slot(key);
+		return keys[i] == 0 ? missing : values[i];
+	}
+
+	/**
+	 * Returns true if the key is in the map.
+	 */
+	public boolean containsKey(long key) {
+		return key == 0 ? hasZeroKey : keys[slot(key)] != 0;
+	}
+
+	/**
+	 * Set the value of key, replacing its current value.
+	 */
+	public void put(long key, int value) {
+		if (key == 0) {
+			size += hasZeroKey ? 0 : 1;
+			hasZeroKey = true;
+			zeroValue = value;
+			return;
+		}
+		int i = slot(key);
+		if (keys[i] == 0) {
+			if (2 * (size + 1) > keys.length) {
+				grow();
+				i = slot(key);
+			}
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * Returns the value of key, after setting it to value if the key was not in the map.
+	 */
+	public int putIfAbsent(long key, int value) {
+		if (key == 0) {
+			if (!hasZeroKey) {
+				put(key, value);
+			}
+			return zeroValue;
+		}
+		int i = slot(key);
+		if (keys[i] != 0) {
+			return values[i];
+		}
+		put(key, value);
+		return value;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != 0) {
+				int i = slot(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of bytes taken by the table.
+	 */
+	public long getNumBytes() {
+		return 12L * keys.length;
+	}
+
+	/**
+	 * Remove all entries, keeping the table.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+		hasZeroKey = false;
+	}
+
+}
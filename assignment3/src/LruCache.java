@@ -0,0 +1,139 @@
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe least recently used cache with a memory budget.
+ * 
+ * The size of every entry is estimated by a Weigher, entries are evicted in least recently used order as long as the
+ * total estimated size exceeds the budget. Every entry belongs to an owner (e.g. the similarity searcher the values were
+ * computed with), a value is only returned to the owner it was put for. Entries of an owner that is no longer queried
+ * (e.g. the searcher of a replaced index snapshot) are not cleared, they age out in least recently used order. The owner
+ * is only weakly referenced, so the cache does not keep a replaced searcher alive.
+ */
+public class LruCache<K, V> {
+
+	/**
+	 * Estimates the memory used by an entry, in bytes.
+	 */
+	public interface Weigher<K, V> {
+		long weigh(K key, V value);
+	}
+
+	private final LinkedHashMap<OwnedKey<K>, V> map = new LinkedHashMap<OwnedKey<K>, V>(16, 0.75f, true); // access order
+	private final Weigher<K, V> weigher;
+	private final long budget;
+	private long weight;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param budget memory budget in bytes
+	 * @param weigher estimates the size of an entry
+	 */
+	public LruCache(long budget, Weigher<K, V> weigher) {
+		this.budget = budget;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Returns the cached value, or null if it is not cached for this owner.
+	 */
+	public synchronized V get(Object owner, K key) {
+		V value = map.get(new OwnedKey<K>(owner, key));
+		if (value == null) {
+			misses++;
+		}else{
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Cache a value that was computed for this owner.
+	 */
+	public synchronized void put(Object owner, K key, V value) {
+		long entryWeight = weigher.weigh(key, value);
+		if (entryWeight > budget) {
+			return;
+		}
+		V old = map.put(new OwnedKey<K>(owner, key), value);
+		if (old != null) {
+			weight -= weigher.weigh(key, old);
+		}
+		weight += entryWeight;
+
+		Iterator<Map.Entry<OwnedKey<K>, V>> it = map.entrySet().iterator();
+		while (weight > budget && it.hasNext()) {
+			Map.Entry<OwnedKey<K>, V> eldest = it.next();
+			weight -= weigher.weigh(eldest.getKey().key, eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Remove all entries, the statistics are kept.
+	 */
+	public synchronized void clear() {
+		map.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * Estimated size of the cached entries in bytes.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * One line summary of the cache statistics.
+	 */
+	public synchronized String stats() {
+		return "entries=" + map.size() + " size=" + weight / 1024 + "KB hits=" + hits + " misses=" + misses
+				+ " evictions=" + evictions + " hitRate=" + getHitRate();
+	}
+
+	/**
+	 * A key together with the owner it was cached for, owners are compared on identity.
+	 */
+	private static final class OwnedKey<K> {
+		final WeakReference<Object> owner;
+		final K key;
+		final int hash;
+
+		OwnedKey(Object owner, K key) {
+			this.owner = new WeakReference<Object>(owner);
+			this.key = key;
+			this.hash = 31 * System.identityHashCode(owner) + key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof OwnedKey)) {
+				return false;
+			}
+			OwnedKey<?> other = (OwnedKey<?>) o;
+			Object owner = this.owner.get();
+			return hash == other.hash && owner != null && owner == other.owner.get() && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Computes minhash signatures one object at a time, with hash functions that are evaluated instead of looked up in a table.
+ * 
+ * The hash functions are (a*i + b) mod p with p = 2^31 - 1, so the number of unique values does not have to be known up front.
+ * This allows documents to be signed while the corpus is streamed. The signature columns are collected in a
+ * (numHashes x numObjects) signature matrix like the one of LSH.constructSignatureMatrix.
+ */
+public class MinHasher {
+
+	static final long PRIME = Integer.MAX_VALUE; // 2^31 - 1
+
+	private final long[] a;
+	private final long[] b;
+	private int[][] signatureMatrix;
+	private int numObjects;
+
+	/**
+	 * @param numHashes number of hash functions
+	 * @param rand object to generate random numbers
+	 */
+	public MinHasher(int numHashes, Random rand) {
+		a = new long[numHashes];
+		b = new long[numHashes];
+		for (int j = 0; j < numHashes; j++) {
+			do {
+				a[j] = rand.nextInt(Integer.MAX_VALUE);
+			} while (a[j] == 0);
+			b[j] = rand.nextInt(Integer.MAX_VALUE);
+		}
+		signatureMatrix = new int[numHashes][1024];
+	}
+
+	public int getNumHashes() {
+		return a.length;
+	}
+
+	/**
+	 * Returns the signature of a set.
+	 * @param set the set as an array
+	 * @return one minimum hash value per hash function
+	 */
+	public int[] signature(int[] set) {
+		int[] signature = new int[a.length];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		for (int r : set) {
+			update(signature, r);
+		}
+		return signature;
+	}
+
+	/**
+	 * Lower the signature with the hashes of value r. The loop has no branches or divisions, the modulo is a Mersenne
+	 * reduction.
+	 */
+	private void update(int[] signature, int r) {
+		for (int i = 0; i < signature.length; i++) {
+			signature[i] = Math.min(signature[i], mod(a[i] * r + b[i]));
+		}
+	}
+
+	/**
+	 * x mod (2^31 - 1) for 0 <= x < 2^62, without a division.
+	 */
+	static int mod(long x) {
+		x = (x & PRIME) + (x >>> 31);
+		x = (x & PRIME) + (x >>> 31);
+		// x is now at most 2^31 - 1, which is 0 modulo the prime
+		return (int) (x == PRIME ? 0 : x);
+	}
+
+	/**
+	 * Signature using the % operator and a branch per hash function, kept as a reference for SignatureLoopBenchmark.
+	 */
+	public int[] signatureWithModulo(int[] set) {
+		int[] signature = new int[a.length];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		for (int r : set) {
+			for (int i = 0; i < a.length; i++) {
+				int h_iofr = (int) ((a[i] * r + b[i]) % PRIME);
+				if (h_iofr < signature[i]) {
+					signature[i] = h_iofr;
+				}
+			}
+		}
+		return signature;
+	}
+
+	public int[] signature(Set<Integer> set) {
+		return signature(SimilaritySearcher.toSortedArray(set));
+	}
+
+	/**
+	 * Sign the next object and add its signature as a column of the signature matrix.
+	 * @param set the set of the object
+	 * @return the id of the object (its column)
+	 */
+	public int add(int[] set) {
+		if (numObjects == signatureMatrix[0].length) {
+			for (int i = 0; i < a.length; i++) {
+				signatureMatrix[i] = Arrays.copyOf(signatureMatrix[i], numObjects * 2);
+			}
+		}
+		int[] signature = signature(set);
+		for (int i = 0; i < a.length; i++) {
+			signatureMatrix[i][numObjects] = signature[i];
+		}
+		return numObjects++;
+	}
+
+	/**
+	 * Returns the (numHashes x numObjects) signature matrix of the added objects.
+	 */
+	public int[][] getSignatureMatrix() {
+		if (signatureMatrix[0].length != numObjects) {
+			for (int i = 0; i < a.length; i++) {
+				signatureMatrix[i] = Arrays.copyOf(signatureMatrix[i], numObjects);
+			}
+		}
+		return signatureMatrix;
+	}
+
+}
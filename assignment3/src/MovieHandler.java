@@ -1,8 +1,6 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -11,15 +9,19 @@ import java.util.Set;
 
 /**
  * The MovieHandler reads the MovieLens data and constructs several mappings:
- * 		- usersToRatings: maps the true user ID to a list of movie ratings
+ * 		- the ratings, in primitive columns grouped by internal user ID: ratingMovies holds the internal movie ID and
+ * 		  ratingValues the rating, the ratings of internal user u are the rows userOffsets[u] to userOffsets[u+1]
  * 
- * 		- userIDs: maps the internal user ID to the true user ID
- * 		- movieIDs: maps the internal movie ID to the true movie ID
+ * 		- users: maps the true user ID to the internal user ID and back
+ * 		- movies: maps the true movie ID to the internal movie ID and back
  * 
- * 		- usersToSets: maps the internal user ID to a set containing the users' likes and dislikes
+ * 		- userSets: the set of likes and dislikes of every internal user ID, as sorted runs of one int array
+ * 		  (see SortedArraySets), usersToSets is a Map view on it
  * 
  * The internal IDs are introduced to make sure that the IDs used to perform minhashing and LSH nicely go from 0 to num_users or num_movies.
  * Also, creating this mapping here ensures that the produced signature matrix and LSH tables are equal for equal inputs.
+ * Both ID mappings are IdDictionaries, so a true ID is mapped to its internal ID with a hash lookup. The internal IDs
+ * follow the order of the true IDs.
  * 
  * @author Toon Van Craenendonck
  *
@@ -28,13 +30,18 @@ public class MovieHandler{
 
 	String ratingFile;
 
-	Map<Integer, List<MovieRating>> usersToRatings = new HashMap<Integer, List<MovieRating>>(); 
-	Map<Integer, Set<Integer>> usersToSets = new HashMap<Integer, Set<Integer>>();
+	int[] userOffsets;
+	int[] ratingMovies;
+	float[] ratingValues;
+	ObjectSets userSets;
+	Map<Integer, Set<Integer>> usersToSets;
 
-	ArrayList<Integer> movieIDs;
-	ArrayList<Integer> userIDs;
+	IdDictionary movies = new IdDictionary();
+	IdDictionary users = new IdDictionary();
 
-	Map<Integer, Double> movieAverageRatings; 
+	double[] userAverageRatings;
+	double[] movieAverageRatings;
+	double movieAverageRating;
 
 	static double DEFAULT_RATING = 2.5; 
 
@@ -64,121 +71,174 @@ public class MovieHandler{
 
 	/**
 	 * Returns internal ID to true ID mapping.
-	 * @return userIDs the mapping
+	 * @return the mapping
 	 */
-	public ArrayList<Integer> getUserIDs(){
-		return userIDs;
+	public List<Integer> getUserIDs(){
+		return new AbstractList<Integer>() {
+			@Override
+			public Integer get(int index) {
+				return (int) users.getID(index);
+			}
+
+			@Override
+			public int size() {
+				return users.size();
+			}
+
+			@Override
+			public int indexOf(Object o) {
+				return o instanceof Integer ? getInternalUserID((Integer) o) : -1;
+			}
+		};
 	}
 
 	/**
-	 * Reads the MovieLens data into a map, mapping user IDs to lists of movie ratings.
-	 * Also creates internal to true ID mappings for users and movies. 
+	 * Returns the dictionary of the true user IDs, indexed on the internal user IDs.
 	 */
-	private void readData() {
-		Set<Integer> movieSet = new HashSet<Integer>();
+	public IdDictionary getUsers(){
+		return users;
+	}
+
+	/**
+	 * Maps a true user ID to the internal user ID.
+	 * @param userID external user ID
+	 * @return the internal user ID, or -1 if the user has no ratings
+	 */
+	public int getInternalUserID(int userID){
+		return users.get(userID);
+	}
+
+	/**
+	 * Maps an internal movie ID to the true movie ID.
+	 */
+	public int getMovieID(int internalID){
+		return (int) movies.getID(internalID);
+	}
+
+	/**
+	 * Maps a true movie ID to the internal movie ID.
+	 * @param movieID external movie ID
+	 * @return the internal movie ID, or -1 if the movie has no ratings
+	 */
+	public int getInternalMovieID(int movieID){
+		return movies.get(movieID);
+	}
 
-		BufferedReader br;
+	/**
+	 * Reads the MovieLens data into primitive columns, grouped by user.
+	 * The ratings are loaded from the binary RatingCache next to the rating file, which is (re)built when it is missing or stale.
+	 * Also creates internal to true ID mappings for users and movies, and computes the user and movie average ratings
+	 * in a single pass over the ratings.
+	 */
+	private void readData() {
+		RatingColumns columns;
 		try {
-			br = new BufferedReader(new FileReader(ratingFile));
-			String line;
-			while ((line = br.readLine()) != null) {
-				String[] tokens = line.split("::|\t");
-
-				int userID = Integer.parseInt(tokens[0]);
-				int movieID = Integer.parseInt(tokens[1]);
-				double rating = Double.parseDouble(tokens[2]);
-
-				movieSet.add(movieID);
-				if (!usersToRatings.containsKey(userID)){
-					List<MovieRating> ratingList = new ArrayList<MovieRating>();
-					ratingList.add(new MovieRating(movieID,rating));
-					usersToRatings.put(userID, ratingList);
-				}else{
-					usersToRatings.get(userID).add(new MovieRating(movieID, rating));
-				}
-			}
-			br.close();
+			columns = RatingCache.load(ratingFile);
 		} catch (IOException e) {
 			e.printStackTrace();
+			columns = new RatingColumns(0);
+		}
+		int n = columns.size();
+
+		// the cache groups the ratings on ascending user ID, so the internal user IDs follow the row order
+		userOffsets = new int[1024];
+		for (int row = 0; row < n; row++){
+			if (row == 0 || columns.users[row] != columns.users[row - 1]){
+				int u = users.add(columns.users[row]);
+				if (u + 1 >= userOffsets.length){
+					userOffsets = Arrays.copyOf(userOffsets, userOffsets.length * 2);
+				}
+				userOffsets[u] = row;
+			}
+		}
+		userOffsets = Arrays.copyOf(userOffsets, users.size() + 1);
+		userOffsets[users.size()] = n;
+
+		// sorted distinct movie ids
+		int[] sortedMovies = Arrays.copyOf(columns.movies, n);
+		Arrays.sort(sortedMovies);
+		for (int movie : sortedMovies){
+			movies.add(movie);
 		}
 
-		// store the user ids as a sorted list (just to make sure that we have a unique ordering)
-		userIDs = new ArrayList<Integer>(usersToRatings.keySet());
-		Collections.sort(userIDs);
-
-		// same for movie ids
-		movieIDs = new ArrayList<Integer>(movieSet);
-		Collections.sort(movieIDs);
+		ratingMovies = new int[n];
+		for (int row = 0; row < n; row++){
+			ratingMovies[row] = movies.get(columns.movies[row]);
+		}
+		ratingValues = Arrays.copyOf(columns.ratings, n);
 
-		// precompute average ratings for each movie
-		computeMovieAverageRatings(); 
+		computeAverageRatings(); 
 	}
 
 	/**
-	 * Converts the user to MovieRating mapping to a user to set mapping. 
+	 * Converts the ratings to a user to set mapping. 
 	 * The set contains the movies that the user either liked or disliked. 
-	 * A user likes a movie if he rated it >= 3, and dislikes a movie if he rated it < 3. 
+	 * A user likes a movie if he rated it >= his average rating, and dislikes a movie otherwise. 
 	 * If a user likes a movie, the element 2*id is added to the users' set.
 	 * If a users dislikes a movie, the element 2*id + 1 is added to the users' set.
+	 * The elements are written to one int array, every user's run is sorted (see SortedArraySets), so no element is boxed.
 	 */
 	private void convertToSetRepresentation(){
-		// constructing these mappings once avoids an indexOf lookup for every movie/user
-		Map<Integer, Integer> trueToInternalMovieIDs = new HashMap<Integer, Integer>();
-		for (int i = 0; i < movieIDs.size(); i++){
-			trueToInternalMovieIDs.put(movieIDs.get(i),i);
-		}
-		Map<Integer, Integer> trueToInternalUserIDs = new HashMap<Integer, Integer>();
-		for (int i = 0; i < userIDs.size(); i++){
-			trueToInternalUserIDs.put(userIDs.get(i),i);
-		}
-
-		for (Integer userID : usersToRatings.keySet()) {
-			Set<Integer> newSet = new HashSet<Integer>();
-			for (MovieRating rating : usersToRatings.get(userID)){
-				if (rating.getRating() >= this.getAverageRating(userID)){
-					newSet.add(2*trueToInternalMovieIDs.get(rating.getMovieID())); 
+		SortedArraySets sets = new SortedArraySets();
+		int[] elements = new int[ratingMovies.length];
+		for (int u = 0; u < users.size(); u++) {
+			double average = userAverageRatings[u];
+			for (int row = userOffsets[u]; row < userOffsets[u + 1]; row++){
+				if (ratingValues[row] >= average){
+					elements[row] = 2*ratingMovies[row];
 				}else{
-					newSet.add(2*trueToInternalMovieIDs.get(rating.getMovieID()) + 1);
+					elements[row] = 2*ratingMovies[row] + 1;
 				}
 			}
-			usersToSets.put(trueToInternalUserIDs.get(userID), newSet);  
+			sets.append(elements, userOffsets[u], userOffsets[u + 1]);
 		}
+		sets.trim();
+		userSets = sets;
+		usersToSets = sets.asMap();
 	}
 
 	/**
-	 * Computes the average rating for a user.
+	 * Returns the average rating of a user (see computeAverageRatings()).
 	 * @param userID external userID 
 	 * @return the users' average rating
 	 */
 	public double getAverageRating(Integer userID) {
-		double avg = 0;
-		for (MovieRating r : usersToRatings.get(userID)){
-			avg += r.getRating();
+		int internalID = getInternalUserID(userID);
+		if (internalID < 0){
+			throw new IllegalArgumentException("User " + userID + " has no ratings");
 		}
-		return avg / usersToRatings.get(userID).size();
+		return userAverageRatings[internalID];
 	}
 
 	/** 
-	 * Fetch the average movie rating from the cache (see computeMovieAverageRatings())
+	 * Fetch the average movie rating from the cache (see computeAverageRatings())
 	 */ 
 	public double getMovieAverageRating(Integer movieID){
-		if(movieAverageRatings.containsKey(movieID))
-			return movieAverageRatings.get(movieID);
+		int internalID = getInternalMovieID(movieID);
+		if (internalID >= 0)
+			return movieAverageRatings[internalID];
 		else
 			return DEFAULT_RATING;
 	}
 
+	/**
+	 * Returns the average rating of the movie with the given internal ID.
+	 */
+	public double getInternalMovieAverageRating(int internalID){
+		return movieAverageRatings[internalID];
+	}
+
+	/**
+	 * Returns the average of the movie average ratings.
+	 */
 	public double getMovieAverageRating() {
-		double sum = 0;
-		for (double rating : movieAverageRatings.values()) {
-			sum += rating;
-		}
-		return sum / getNumMovies();
+		return movieAverageRating;
 	}
 
 
 	/**
 	 * Returns the user to set mapping. Internal IDs are used here.
+	 * The mapping is a view on getSets(), every get builds a new Set.
 	 * @return the mapping
 	 */
 	public Map<Integer, Set<Integer>> getObjectMapping() {
@@ -186,11 +246,136 @@ public class MovieHandler{
 	}
 
 	/**
-	 * Returns the user to movie mapping. External IDs are used here.
-	 * @return the mappings
+	 * Returns the like/dislike sets of the users, on their internal IDs.
+	 * @return the sets
 	 */
-	public Map<Integer, List<MovieRating>> getUsersToRatings() {
-		return usersToRatings;
+	public ObjectSets getSets() {
+		return userSets;
+	}
+
+	/**
+	 * Converts the ratings of other users (e.g. a batch of new users to join against these users, see
+	 * SimilaritySearcher.join) to like/dislike sets with the movie IDs of these ratings, like convertToSetRepresentation.
+	 * Movies that have no ratings here get new IDs after the known movies, so they count in the union of the Jaccard
+	 * similarity; LSH ignores them when signing the queries.
+	 * @param others the ratings of the other users
+	 * @return the sets, keyed on external user ID
+	 */
+	public Map<Integer, Set<Integer>> toQuerySets(RatingColumns others) {
+		Map<Integer, Double> sums = new HashMap<Integer, Double>();
+		Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		for (int row = 0; row < others.size(); row++) {
+			sums.merge(others.getUserID(row), (double) others.getRating(row), Double::sum);
+			counts.merge(others.getUserID(row), 1, Integer::sum);
+		}
+		Map<Integer, Integer> newMovies = new HashMap<Integer, Integer>();
+		Map<Integer, Set<Integer>> querySets = new HashMap<Integer, Set<Integer>>();
+		for (int row = 0; row < others.size(); row++) {
+			int user = others.getUserID(row);
+			int movie = getInternalMovieID(others.getMovieID(row));
+			if (movie < 0) {
+				Integer id = newMovies.get(others.getMovieID(row));
+				if (id == null) {
+					id = movies.size() + newMovies.size();
+					newMovies.put(others.getMovieID(row), id);
+				}
+				movie = id;
+			}
+			double average = sums.get(user) / counts.get(user);
+			Set<Integer> set = querySets.get(user);
+			if (set == null) {
+				set = new HashSet<Integer>();
+				querySets.put(user, set);
+			}
+			set.add(others.getRating(row) >= average ? 2*movie : 2*movie + 1);
+		}
+		return querySets;
+	}
+
+	/**
+	 * Compress the user sets (see CompressedSets), the user to set mapping is then a view on the compressed sets.
+	 * @return the compressed sets
+	 */
+	public CompressedSets compressSets() {
+		CompressedSets sets = new CompressedSets();
+		for (int u = 0; u < userSets.size(); u++) {
+			sets.append(userSets.get(u));
+		}
+		sets.trim();
+		userSets = sets;
+		usersToSets = sets.asMap();
+		return sets;
+	}
+
+	/**
+	 * Returns the movie to set mapping, the transpose of the user to set mapping. Internal IDs are used here.
+	 * If a user likes a movie, the element 2*userID is added to the movies' set, if he dislikes it, the element 2*userID + 1.
+	 * @return the mapping
+	 */
+	public Map<Integer, Set<Integer>> getItemMapping() {
+		Map<Integer, Set<Integer>> moviesToSets = new HashMap<Integer, Set<Integer>>();
+		for (int m = 0; m < movies.size(); m++) {
+			moviesToSets.put(m, new HashSet<Integer>());
+		}
+		for (int u = 0; u < users.size(); u++) {
+			for (int row = userOffsets[u]; row < userOffsets[u + 1]; row++){
+				moviesToSets.get(ratingMovies[row]).add(ratingValues[row] >= userAverageRatings[u] ? 2*u : 2*u + 1);
+			}
+		}
+		return moviesToSets;
+	}
+
+	/**
+	 * Returns the number of unique values that can be found in the item mapping sets.
+	 * @return the number of values
+	 */
+	public int getNumItemValues() {
+		return 2*users.size();
+	}
+
+	/**
+	 * Returns the first rating row of a user, the ratings of the user are the rows getRatingStart(u) to getRatingEnd(u).
+	 * @param internalID internal user ID
+	 */
+	public int getRatingStart(int internalID) {
+		return userOffsets[internalID];
+	}
+
+	/**
+	 * Returns the end (exclusive) of the rating rows of a user.
+	 * @param internalID internal user ID
+	 */
+	public int getRatingEnd(int internalID) {
+		return userOffsets[internalID + 1];
+	}
+
+	/**
+	 * Returns the true movie ID of a rating row.
+	 */
+	public int getRatingMovieID(int row) {
+		return (int) movies.getID(ratingMovies[row]);
+	}
+
+	/**
+	 * Returns the internal movie ID of a rating row.
+	 */
+	public int getRatingInternalMovieID(int row) {
+		return ratingMovies[row];
+	}
+
+	/**
+	 * Returns the rating of a rating row.
+	 */
+	public double getRating(int row) {
+		return ratingValues[row];
+	}
+
+	/**
+	 * Returns the number of users that were read.
+	 * @return the number of users
+	 */
+	public int getNumUsers() {
+		return users.size();
 	}
 
 	/**
@@ -198,7 +383,7 @@ public class MovieHandler{
 	 * @return the number of movies
 	 */
 	public int getNumMovies() {
-		return movieIDs.size();
+		return movies.size();
 	}
 
 	/**
@@ -206,38 +391,34 @@ public class MovieHandler{
 	 * @return the number of values
 	 */
 	public int getNumValues() {
-		return 2*movieIDs.size();
+		return 2*movies.size();
 	}
 
 	/**
-	 * Computes and caches movies average ratings. 
+	 * Computes and caches the average rating of every user and every movie, in one pass over the ratings. 
 	 */
-	private void computeMovieAverageRatings() {
-		movieAverageRatings = new HashMap<Integer, Double>(); 
-
-		Map<Integer, Double> ratingSum = new HashMap<Integer, Double>();
-		Map<Integer, Integer> ratingCount = new HashMap<Integer, Integer>();
-
-		for(Integer userID : userIDs){
-			for (MovieRating r : usersToRatings.get(userID)){
-				if(! ratingSum.containsKey(r.getMovieID())){
-					ratingSum.put(r.getMovieID(), (double)r.getRating()); 
-					ratingCount.put(r.getMovieID(), 1); 
-				}
-				else{
-					ratingSum.put(r.getMovieID(), (ratingSum.get(r.getMovieID()) + r.getRating())); 
-					ratingCount.put(r.getMovieID(), ratingCount.get(r.getMovieID()) + 1);
-				}
+	private void computeAverageRatings() {
+		userAverageRatings = new double[users.size()];
+		double[] movieSums = new double[movies.size()];
+		int[] movieCounts = new int[movies.size()];
+
+		for (int u = 0; u < users.size(); u++){
+			double userSum = 0;
+			for (int row = userOffsets[u]; row < userOffsets[u + 1]; row++){
+				userSum += ratingValues[row];
+				movieSums[ratingMovies[row]] += ratingValues[row];
+				movieCounts[ratingMovies[row]]++;
 			}
+			userAverageRatings[u] = userSum / (userOffsets[u + 1] - userOffsets[u]);
 		}
 
-		for (Map.Entry<Integer, Double> entry : ratingSum.entrySet()) {
-			int movieID = entry.getKey(); 
-			double avg = entry.getValue() / ratingCount.get(movieID);
-
-			movieAverageRatings.put(movieID, avg);
+		movieAverageRatings = new double[movies.size()];
+		double sum = 0;
+		for (int m = 0; m < movies.size(); m++){
+			movieAverageRatings[m] = movieSums[m] / movieCounts[m];
+			sum += movieAverageRatings[m];
 		}
-
+		movieAverageRating = sum / movies.size();
 	}
 
 
@@ -1,15 +1,18 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.Map;
 
 /**
  * The MovieRunner can be ran from the commandline to perform minhash and LSH, and to afterwards predict user ratings.
  * Example command to run with LSH:
  * 			java MovieRunner -method lsh -numHashes 100 -numBands 20 -trainingFile ../r1.train -testFile ../r1.test -minRatingCount 3 -threshold 0.1
+ * Neighbors and predictions are cached in memory, -cacheMB sets the cache budget (64MB by default).
+ * With -method sharded -shards 4, the LSH bands are split over 4 worker processes, see ShardedLSH.
+ * With -neighbors item, the search runs over movies instead of users, and the 50 (-topItems) most similar movies of every
+ * movie are precomputed, see ItemNeighbors.
+ * The like/dislike sets of the users are kept as sorted runs of one int array (see SortedArraySets). With -sets compressed,
+ * they are delta and varint encoded in one byte array instead (see CompressedSets).
  * 
  * @author Toon Van Craenendonck
  */
@@ -21,6 +24,13 @@ public class MovieRunner {
 	static double threshold;
 	static int minRatingCount;
 	static String testFile;
+	static ItemNeighbors items;
+
+	// per-user neighbors, keyed on (internal user ID, threshold), and predictions, keyed on (external user ID, movie ID)
+	static long cacheBudget = 64L << 20;
+	// volatile, a QueryServer rebuild replaces them while queries run
+	static volatile LruCache<String, Neighbor[]> neighborCache;
+	static volatile LruCache<String, Double> predictionCache;
 	
 	public static void main(String[] args) {	
 
@@ -39,13 +49,18 @@ public class MovieRunner {
 		int numHashes = -1;
 		int numBands = -1;
 		int seed = -1;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		String neighbors = "user";
+		int topItems = 50;
+		int numShards = 2;
+		String setFormat = "boxed";
 		
 		int i = 0;
 		while (i < args.length && args[i].startsWith("-")) {
 			String arg = args[i];
 			if (arg.equals("-method")) {
-				if (!args[i+1].equals("bf") && !args[i+1].equals("lsh")){
-					System.err.println("The search method should either be brute force (bf) or minhash and locality sensitive hashing (lsh)");
+				if (!args[i+1].equals("bf") && !args[i+1].equals("lsh") && !args[i+1].equals("sharded")){
+					System.err.println("The search method should either be brute force (bf), minhash and locality sensitive hashing (lsh) or sharded lsh (sharded)");
 				}
                 method = args[i+1];
             }else if(arg.equals("-numHashes")){
@@ -62,25 +77,163 @@ public class MovieRunner {
             	threshold = Double.parseDouble(args[i+1]);
             }else if(arg.equals("-minRatingCount")){
             	minRatingCount = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-threads")){
+            	numThreads = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-cacheMB")){
+            	cacheBudget = Long.parseLong(args[i+1]) << 20;
+            }else if(arg.equals("-neighbors")){
+				if (!args[i+1].equals("user") && !args[i+1].equals("item")){
+					System.err.println("The neighbors should either be user or item based");
+				}
+            	neighbors = args[i+1];
+            }else if(arg.equals("-shards")){
+            	numShards = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-topItems")){
+            	topItems = Integer.parseInt(args[i+1]);
+            }else if(arg.equals("-sets")){
+				if (!args[i+1].equals("boxed") && !args[i+1].equals("compressed")){
+					System.err.println("The sets should either be boxed or compressed");
+				}
+            	setFormat = args[i+1];
             }
 			i += 2;
 		}
 		
 		ratings = new MovieHandler(trainingFile);	
+		createCaches();
 		Random rand = new Random(seed);
 		
+		Map<Integer, Set<Integer>> objectMapping = ratings.getObjectMapping();
+		int numValues = ratings.getNumValues();
+		ObjectSets sets = null;
+		if (neighbors.equals("item")){
+			objectMapping = ratings.getItemMapping();
+			numValues = ratings.getNumItemValues();
+			if (setFormat.equals("compressed")){
+				sets = CompressedSets.of(objectMapping);
+				objectMapping = sets.asMap();
+			}
+		}else{
+			if (setFormat.equals("compressed")){
+				ratings.compressSets();
+			}
+			sets = ratings.getSets();
+			objectMapping = ratings.getObjectMapping();
+		}
+		if (setFormat.equals("compressed")){
+			System.out.println("Compressed sets: " + sets);
+		}
+
+		SimilaritySearcher searcher = null;
 		if (method.equals("bf")){
+			searcher = new BruteForceSearch(objectMapping, sets);
+		}else if(method.equals("lsh")){
 			if(numHashes == -1 || numBands == -1){
 				throw new Error("Both -numHashes and -numBands are mandatory arguments for the LSH method"); 
 			}
-			return new BruteForceSearch(ratings.getObjectMapping());
-		}else if(method.equals("lsh")){
-			return new LSH(ratings.getObjectMapping(), numHashes, numBands, ratings.getNumValues(), rand);
+			searcher = new LSH(objectMapping, numHashes, numBands, numValues, rand, numThreads, sets);
+		}else if(method.equals("sharded")){
+			if(numHashes == -1 || numBands == -1){
+				throw new Error("Both -numHashes and -numBands are mandatory arguments for the LSH method"); 
+			}
+			if (neighbors.equals("item")){
+				throw new Error("The sharded method only supports user based neighbors");
+			}
+			searcher = new ShardedLSH(objectMapping, "movies", args, numShards);
+		}
+
+		items = null;
+		if (searcher != null && neighbors.equals("item")){
+			long startTime = System.currentTimeMillis();
+			System.out.println("Precomputing item neighbors.. ");
+			items = new ItemNeighbors(ratings, searcher, threshold, topItems);
+			System.out.println("done, took " +  (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+			System.out.println("--------------");
 		}
-		return null;
+		return searcher;
 
 	}
 	
+	/**
+	 * Creates the neighbor and prediction caches, which share the cache budget.
+	 */
+	static void createCaches(){
+		// object headers, references and the key string are estimated at 64 bytes, a Neighbor at 32 bytes
+		neighborCache = new LruCache<String, Neighbor[]>(cacheBudget / 2, new LruCache.Weigher<String, Neighbor[]>() {
+			public long weigh(String key, Neighbor[] neighbors) {
+				return 64 + 40L * neighbors.length;
+			}
+		});
+		predictionCache = new LruCache<String, Double>(cacheBudget / 2, new LruCache.Weigher<String, Double>() {
+			public long weigh(String key, Double prediction) {
+				return 96;
+			}
+		});
+	}
+
+	/**
+	 * Returns the current searcher, threshold, ratings and item neighbors as a snapshot.
+	 */
+	static IndexSnapshot snapshot(){
+		return new IndexSnapshot(0, searcher, threshold, ratings, items, null);
+	}
+
+	/**
+	 * Get the neighbors of a user through the neighbor cache.
+	 * The entries are cached per searcher, so a replaced searcher does not clear the entries of the current one.
+	 * @param internalID internal id of the user
+	 * @return the neighbors with similarity above the threshold
+	 */
+	public static Neighbor[] getNeighbors(int internalID){
+		return getNeighbors(snapshot(), internalID);
+	}
+
+	/**
+	 * Get the neighbors of a user in the given snapshot, through the neighbor cache.
+	 */
+	public static Neighbor[] getNeighbors(IndexSnapshot index, int internalID){
+		LruCache<String, Neighbor[]> cache = neighborCache;
+		if (cache == null){
+			createCaches();
+			cache = neighborCache;
+		}
+		String key = internalID + ":" + index.threshold;
+		Neighbor[] neighbors = cache.get(index.searcher, key);
+		if (neighbors == null){
+			neighbors = index.searcher.getNeighborsAboveThreshold(internalID, index.threshold).toArray(new Neighbor[0]);
+			cache.put(index.searcher, key, neighbors);
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Predict the rating of user with external id externUserID for movie with id movieID, through the prediction cache.
+	 * @param externUserID external id of user whose rating should be predict
+	 * @param movieID movie for which the rating should be predicted
+	 * @return the predicted rating
+	 */
+	public static double getPrediction(int externUserID, int movieID){
+		return getPrediction(snapshot(), externUserID, movieID);
+	}
+
+	/**
+	 * Predict a rating with the given snapshot, through the prediction cache.
+	 */
+	public static double getPrediction(IndexSnapshot index, int externUserID, int movieID){
+		LruCache<String, Double> cache = predictionCache;
+		if (cache == null){
+			createCaches();
+			cache = predictionCache;
+		}
+		String key = externUserID + ":" + movieID + ":" + index.threshold;
+		Double prediction = cache.get(index.searcher, key);
+		if (prediction == null){
+			prediction = predictRating(index, externUserID, movieID);
+			cache.put(index.searcher, key, prediction);
+		}
+		return prediction;
+	}
+
 	/**
 	 * Predict the rating of user with external id externUserID for movie with id movieID.
 	 * @param externUserID external id of user whose rating should be predict
@@ -88,20 +241,30 @@ public class MovieRunner {
 	 * @return the predicted rating
 	 */
 	public static double predictRating(int externUserID, int movieID){
-    List<Integer> userIDs = ratings.getUserIDs();
-    int internalID = userIDs.indexOf(externUserID);
+		return predictRating(snapshot(), externUserID, movieID);
+	}
+
+	/**
+	 * Predict a rating with the given snapshot.
+	 */
+	public static double predictRating(IndexSnapshot index, int externUserID, int movieID){
+    if (index.items != null) {
+      return index.items.predictRating(externUserID, movieID);
+    }
+    MovieHandler ratings = index.ratings;
+    int internalID = ratings.getInternalUserID(externUserID);
     double mu = ratings.getMovieAverageRating();
     double usrDev = ratings.getAverageRating(externUserID) - mu;
     double mvAvg = ratings.getMovieAverageRating(movieID) - mu;
 
-    Map<Integer, List<MovieRating>> userRatings = ratings.getUsersToRatings();
     double neighborDev = 0;
     double similaritySum = 0;
-    Set<Neighbor> neighbors = searcher.getNeighborsAboveThreshold(internalID, threshold);
+    Neighbor[] neighbors = getNeighbors(index, internalID);
     for (Neighbor neighbor : neighbors) {
-      for (MovieRating mvRate : userRatings.get(userIDs.get(neighbor.getUserID())) ) {
-        if (movieID == mvRate.getMovieID()) {
-          neighborDev += neighbor.getSimilarity() * (mvRate.getRating() - mu);
+      int end = ratings.getRatingEnd(neighbor.getUserID());
+      for (int row = ratings.getRatingStart(neighbor.getUserID()); row < end; row++) {
+        if (movieID == ratings.getRatingMovieID(row)) {
+          neighborDev += neighbor.getSimilarity() * (ratings.getRating(row) - mu);
           similaritySum += neighbor.getSimilarity();
         }
       }
@@ -117,6 +280,7 @@ public class MovieRunner {
 	/**
 	 * For each user/movie combination in the test set, predict the users' rating for the movie and compare to the true rating. 
 	 * Prints the current mean absolute error (MAE) after every 50 users. 
+	 * The test set is read through the RatingCache, so the ratings are visited grouped by user.
 	 * @param testFile path to file containing test set 
 	 */
 	public static void evaluate(String testFile){
@@ -128,19 +292,15 @@ public class MovieRunner {
 		int est_used = 0;
 		int ctr = 0;
 		
-		BufferedReader br;
 		try {
-			br = new BufferedReader(new FileReader(testFile));
-			String line;
-			while ((line = br.readLine()) != null) {
-				String[] tokens = line.split("::|\t");
-
-				int userID = Integer.parseInt(tokens[0]);
-				int movieID = Integer.parseInt(tokens[1]);
-				double rating = Double.parseDouble(tokens[2]);
+			RatingColumns testRatings = RatingCache.load(testFile);
+			for (int row = 0; row < testRatings.size(); row++) {
+				int userID = testRatings.getUserID(row);
+				int movieID = testRatings.getMovieID(row);
+				double rating = testRatings.getRating(row);
 
 				double avgRating = ratings.getMovieAverageRating(movieID);
-				double estimate = predictRating(userID, movieID);
+				double estimate = getPrediction(userID, movieID);
 
 				summedErrorRecommenderSq += Math.pow(rating - estimate,2);
 				summedErrorAvgSq += Math.pow(rating - avgRating, 2);
@@ -155,10 +315,11 @@ public class MovieRunner {
 					System.out.println("RMSE (default): " + Math.sqrt(summedErrorAvgSq/ctr) + " RMSE (recommender): " + Math.sqrt(summedErrorRecommenderSq/ctr));
 				}
 			}
-			br.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		System.out.println("Neighbor cache: " + neighborCache.stats());
+		System.out.println("Prediction cache: " + predictionCache.stats());
 
 
 	}
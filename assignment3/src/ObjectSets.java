@@ -0,0 +1,126 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Set representations of objects with dense ids 0..size()-1, stored in a way that does not require a Set<Integer> per object.
+ * Implementations compute the Jaccard similarity of two objects directly on their stored form.
+ */
+public interface ObjectSets {
+
+	/**
+	 * Returns the number of objects.
+	 */
+	int size();
+
+	/**
+	 * Returns the set of object obj as a sorted array.
+	 */
+	int[] get(int obj);
+
+	/**
+	 * Returns the Jaccard similarity between the sets of two objects.
+	 */
+	double jaccard(int obj1, int obj2);
+
+	/**
+	 * A read-only Map view of the sets, for code that expects an objectMapping. Every get builds a new Set from get(obj),
+	 * size() and keySet() do not decode any set.
+	 */
+	default Map<Integer, Set<Integer>> asMap() {
+		return new AbstractMap<Integer, Set<Integer>>() {
+			@Override
+			public int size() {
+				return ObjectSets.this.size();
+			}
+
+			@Override
+			public Set<Integer> keySet() {
+				return new AbstractSet<Integer>() {
+					@Override
+					public int size() {
+						return ObjectSets.this.size();
+					}
+
+					@Override
+					public boolean contains(Object key) {
+						return containsKey(key);
+					}
+
+					@Override
+					public Iterator<Integer> iterator() {
+						return new Iterator<Integer>() {
+							int next = 0;
+
+							@Override
+							public boolean hasNext() {
+								return next < size();
+							}
+
+							@Override
+							public Integer next() {
+								if (next >= size()) {
+									throw new NoSuchElementException();
+								}
+								return next++;
+							}
+						};
+					}
+				};
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return key instanceof Integer && (Integer) key >= 0 && (Integer) key < size();
+			}
+
+			@Override
+			public Set<Integer> get(Object key) {
+				if (!containsKey(key)) {
+					return null;
+				}
+				Set<Integer> set = new HashSet<Integer>();
+				for (int value : ObjectSets.this.get((Integer) key)) {
+					set.add(value);
+				}
+				return set;
+			}
+
+			@Override
+			public Set<Map.Entry<Integer, Set<Integer>>> entrySet() {
+				return new AbstractSet<Map.Entry<Integer, Set<Integer>>>() {
+					@Override
+					public int size() {
+						return ObjectSets.this.size();
+					}
+
+					@Override
+					public Iterator<Map.Entry<Integer, Set<Integer>>> iterator() {
+						return new Iterator<Map.Entry<Integer, Set<Integer>>>() {
+							int next = 0;
+
+							@Override
+							public boolean hasNext() {
+								return next < size();
+							}
+
+							@Override
+							public Map.Entry<Integer, Set<Integer>> next() {
+								if (next >= size()) {
+									throw new NoSuchElementException();
+								}
+								int obj = next++;
+								return new AbstractMap.SimpleImmutableEntry<Integer, Set<Integer>>(obj, get(obj));
+							}
+						};
+					}
+				};
+			}
+		};
+	}
+
+}
@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The neighbors of every object, indexed from the similar pairs that were found at some threshold.
+ * It is not changed after construction, so once published (through a volatile field) any number of threads can read it
+ * without locks. A query with a threshold at or above the threshold of the pairs filters them, a lower threshold needs
+ * new pairs. The pairs may hold both (a, b) and (b, a), every neighbor is kept once per object, so the neighbors are
+ * the same as those of the batch query SimilaritySearcher.getNeighborsAboveThreshold(int[], double).
+ */
+public class PairNeighbors {
+
+	private final double threshold;
+	private final Map<Integer, List<Neighbor>> neighbors = new HashMap<Integer, List<Neighbor>>();
+
+	/**
+	 * @param pairs the pairs with similarity above threshold
+	 * @param threshold the threshold the pairs were found with
+	 */
+	public PairNeighbors(Set<SimilarPair> pairs, double threshold) {
+		this.threshold = threshold;
+		Set<Long> added = new HashSet<Long>(); // (object, neighbor) keys
+		for (SimilarPair pair : pairs) {
+			add(pair.getId1(), new Neighbor(pair.getId2(), pair.getSimilarity()), added);
+			add(pair.getId2(), new Neighbor(pair.getId1(), pair.getSimilarity()), added);
+		}
+	}
+
+	private void add(int objID, Neighbor neighbor, Set<Long> added) {
+		if (!added.add(SimilarPairList.pack(objID, neighbor.getUserID()))) {
+			return;
+		}
+		List<Neighbor> list = neighbors.get(objID);
+		if (list == null) {
+			list = new ArrayList<Neighbor>();
+			neighbors.put(objID, list);
+		}
+		list.add(neighbor);
+	}
+
+	/**
+	 * Returns true if the neighbors above thr can be answered from these pairs.
+	 */
+	public boolean covers(double thr) {
+		return thr >= threshold;
+	}
+
+	/**
+	 * Get the neighbors of an object with similarity above thr (which should be covered).
+	 * @param objID the object of which we want the neighbors
+	 * @param thr the similarity threshold
+	 * @return a new set with the neighbors
+	 */
+	public Set<Neighbor> get(int objID, double thr) {
+		Set<Neighbor> result = new HashSet<Neighbor>();
+		List<Neighbor> list = neighbors.get(objID);
+		if (list != null) {
+			for (Neighbor neighbor : list) {
+				if (neighbor.getSimilarity() > thr) {
+					result.add(neighbor);
+				}
+			}
+		}
+		return result;
+	}
+
+}
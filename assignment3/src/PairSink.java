@@ -0,0 +1,14 @@
+/**
+ * Receives similar pairs one at a time as a similarity searcher finds them, so that the pairs do not have to be kept in memory.
+ */
+public interface PairSink {
+
+	/**
+	 * Called once for every similar pair.
+	 * @param id1 id of object 1
+	 * @param id2 id of object 2
+	 * @param similarity their similarity
+	 */
+	void accept(int id1, int id2, double similarity);
+
+}
@@ -0,0 +1,122 @@
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes similar pairs as "id1,id2,similarity" lines through a buffered channel, to a file or to stdout.
+ * The pairs are written in the order in which they are passed. With an IdDictionary, the internal IDs are written as
+ * their names in the dictionary, the first and second IDs of a pair can have different dictionaries (e.g. in a join).
+ */
+public class PairWriter implements PairSink, Closeable {
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	private final StringBuilder line = new StringBuilder(64);
+	private final boolean closeChannel;
+	// null to write the internal IDs
+	private final IdDictionary firstNames;
+	private final IdDictionary secondNames;
+	private long numPairs;
+
+	/**
+	 * Create a writer to the given file, or to stdout if fileName is null.
+	 */
+	public PairWriter(String fileName) throws IOException {
+		this(fileName, null);
+	}
+
+	/**
+	 * Create a writer that writes the IDs as their names in the dictionary (the internal IDs if names is null).
+	 */
+	public PairWriter(String fileName, IdDictionary names) throws IOException {
+		this(fileName, names, names);
+	}
+
+	/**
+	 * Create a writer that writes the first ID of a pair as its name in firstNames, and the second as its name in
+	 * secondNames (the internal ID if the dictionary is null).
+	 */
+	public PairWriter(String fileName, IdDictionary firstNames, IdDictionary secondNames) throws IOException {
+		this.firstNames = firstNames;
+		this.secondNames = secondNames;
+		if (fileName == null) {
+			channel = Channels.newChannel(System.out);
+			closeChannel = false;
+		}else{
+			channel = new FileOutputStream(fileName).getChannel();
+			closeChannel = true;
+		}
+	}
+
+	@Override
+	public void accept(int id1, int id2, double similarity) {
+		line.setLength(0);
+		if (firstNames == null) {
+			line.append(id1);
+		}else{
+			line.append(firstNames.getName(id1));
+		}
+		line.append(',');
+		if (secondNames == null) {
+			line.append(id2);
+		}else{
+			line.append(secondNames.getName(id2));
+		}
+		line.append(',').append(similarity).append('\n');
+		try {
+			if (firstNames == null && secondNames == null) {
+				if (buffer.remaining() < line.length()) {
+					flush();
+				}
+				for (int i = 0; i < line.length(); i++) {
+					buffer.put((byte) line.charAt(i));
+				}
+			}else{
+				// names need not be ASCII
+				byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+				if (buffer.remaining() < bytes.length) {
+					flush();
+				}
+				if (bytes.length > buffer.capacity()) {
+					channel.write(ByteBuffer.wrap(bytes));
+				}else{
+					buffer.put(bytes);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		numPairs++;
+	}
+
+	/**
+	 * Number of pairs written so far.
+	 */
+	public long getNumPairs() {
+		return numPairs;
+	}
+
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		if (closeChannel) {
+			channel.close();
+		}else{
+			System.out.flush();
+		}
+	}
+
+}
@@ -0,0 +1,271 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The QueryServer builds an index once, through the MovieRunner or DocumentRunner (see IndexSnapshot), and keeps it warm
+ * to answer queries over HTTP on localhost. Requests are handled concurrently by a thread pool.
+ * Example commands:
+ * 				java QueryServer -mode movies -port 8080 -trainingFile ../r1.train -threshold 0.1 -method lsh -numHashes 100 -numBands 20
+ * 				java QueryServer -mode documents -port 8080 -threshold 0.5 -method lsh -maxFiles 100 -dir articles -shingleLength 5 -numHashes 100 -numBands 20
+ * 
+ * Endpoints (all answers are plain text, one result per line):
+ * 		- GET  /neighbors?user=ID[&threshold=T]	users similar to the user with external id ID (movies)
+ * 		- GET  /neighbors?movie=ID				precomputed neighbors of a movie (movies, with -neighbors item)
+ * 		- GET  /predict?user=ID&movie=ID		predicted rating (movies)
+ * 		- GET  /neighbors?doc=ID[&threshold=T]	documents similar to document ID, its number or name (documents)
+ * 		- POST /similar[?threshold=T]			documents similar to the text in the request body (documents)
+ * 		- POST /rebuild							rebuild the index from the data files, in the background
+ * 		- GET  /stats							index version and latency percentiles per endpoint
+ *
+ * The index is an IndexSnapshot. Queries read the current snapshot once, without locks, and finish on it. A rebuild
+ * publishes a new snapshot atomically when it is ready.
+ */
+public class QueryServer {
+
+	static String mode = "movies";
+	static double threshold;
+	static String[] runnerArgs;
+
+	// the published index, queries read it once and use that snapshot until they are done
+	static final AtomicReference<IndexSnapshot> current = new AtomicReference<IndexSnapshot>();
+	static final ExecutorService rebuilder = Executors.newSingleThreadExecutor();
+	static final AtomicBoolean rebuilding = new AtomicBoolean();
+
+	static Map<String, LatencyRecorder> latencies = new LinkedHashMap<String, LatencyRecorder>();
+
+	public static void main(String[] args) throws IOException {
+		int port = 8080;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String arg = args[i];
+			if (arg.equals("-mode")) {
+				mode = args[i+1];
+			}else if (arg.equals("-port")) {
+				port = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-threads")) {
+				numThreads = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-threshold")) {
+				threshold = Double.parseDouble(args[i+1]);
+			}
+			i += 2;
+		}
+
+		HttpServer server = start(args, port, numThreads);
+		System.out.println("Listening on http://localhost:" + server.getAddress().getPort() + "/");
+	}
+
+	/**
+	 * Build the first snapshot and start serving.
+	 * @param args the arguments for the MovieRunner or DocumentRunner (depending on the mode)
+	 * @param port port to listen on, 0 picks a free port
+	 * @param numThreads number of request handling threads
+	 * @return the running server
+	 */
+	public static HttpServer start(String[] args, int port, int numThreads) throws IOException {
+		long startTime = System.currentTimeMillis();
+		runnerArgs = args;
+		current.set(IndexSnapshot.build(mode, args, threshold, 1));
+		System.out.println("Index ready, took " + (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.setExecutor(Executors.newFixedThreadPool(numThreads));
+		server.createContext("/neighbors", timed("neighbors", QueryServer::neighbors));
+		server.createContext("/predict", timed("predict", QueryServer::predict));
+		server.createContext("/similar", timed("similar", QueryServer::similar));
+		server.createContext("/rebuild", timed("rebuild", QueryServer::rebuild));
+		server.createContext("/stats", QueryServer::stats);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * A request handler that gets the query parameters and request body and returns the response body.
+	 */
+	interface Query {
+		String answer(Map<String, String> params, String body) throws Exception;
+	}
+
+	/**
+	 * Wrap a query so that its latency is recorded and errors are reported as 400 responses.
+	 */
+	static HttpHandler timed(String name, final Query query) {
+		final LatencyRecorder recorder = new LatencyRecorder(1 << 16);
+		latencies.put(name, recorder);
+		return new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				long start = System.nanoTime();
+				int status = 200;
+				String response;
+				try {
+					response = query.answer(params(exchange.getRequestURI().getRawQuery()), body(exchange.getRequestBody()));
+				} catch (Exception e) {
+					status = 400;
+					response = "error: " + e + "\n";
+				}
+				send(exchange, status, response);
+				recorder.record(System.nanoTime() - start);
+			}
+		};
+	}
+
+	static String neighbors(Map<String, String> params, String body) {
+		IndexSnapshot index = current.get();
+		double thr = params.containsKey("threshold") ? Double.parseDouble(params.get("threshold")) : index.threshold;
+		StringBuilder sb = new StringBuilder();
+		if (mode.equals("movies") && index.items != null) {
+			int internalID = index.ratings.getInternalMovieID(Integer.parseInt(params.get("movie")));
+			if (internalID < 0) {
+				throw new IllegalArgumentException("unknown movie " + params.get("movie"));
+			}
+			for (Neighbor neighbor : sorted(Arrays.asList(index.items.getNeighbors(internalID)))) {
+				sb.append(index.ratings.getMovieID(neighbor.getUserID())).append(',').append(neighbor.getSimilarity()).append('\n');
+			}
+		}else if (mode.equals("movies")) {
+			int internalID = index.ratings.getInternalUserID(Integer.parseInt(params.get("user")));
+			if (internalID < 0) {
+				throw new IllegalArgumentException("unknown user " + params.get("user"));
+			}
+			for (Neighbor neighbor : sorted(index.searcher.getNeighborsAboveThreshold(internalID, thr))) {
+				if (neighbor.getUserID() == internalID) {
+					continue;
+				}
+				sb.append(index.ratings.getUserIDs().get(neighbor.getUserID())).append(',').append(neighbor.getSimilarity()).append('\n');
+			}
+		}else{
+			int docID = index.documents.getInternalID(params.get("doc"));
+			if (docID < 0) {
+				throw new IllegalArgumentException("unknown document " + params.get("doc"));
+			}
+			for (Neighbor neighbor : sorted(index.searcher.getNeighborsAboveThreshold(docID, thr))) {
+				if (neighbor.getUserID() != docID) {
+					sb.append(index.documents.getName(neighbor.getUserID())).append(',').append(neighbor.getSimilarity()).append('\n');
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	static String predict(Map<String, String> params, String body) {
+		if (!mode.equals("movies")) {
+			throw new IllegalArgumentException("predictions are only available in movies mode");
+		}
+		int userID = Integer.parseInt(params.get("user"));
+		int movieID = Integer.parseInt(params.get("movie"));
+		IndexSnapshot index = current.get();
+		if (index.ratings.getInternalUserID(userID) < 0) {
+			throw new IllegalArgumentException("unknown user " + userID);
+		}
+		return MovieRunner.getPrediction(index, userID, movieID) + "\n";
+	}
+
+	static String similar(Map<String, String> params, String body) {
+		if (!mode.equals("documents")) {
+			throw new IllegalArgumentException("text queries are only available in documents mode");
+		}
+		IndexSnapshot index = current.get();
+		double thr = params.containsKey("threshold") ? Double.parseDouble(params.get("threshold")) : index.threshold;
+		Set<Integer> shingles = index.documents.getShingler().shingleQuery(body);
+		StringBuilder sb = new StringBuilder();
+		for (Neighbor neighbor : sorted(index.searcher.getNeighborsAboveThreshold(shingles, thr))) {
+			sb.append(index.documents.getName(neighbor.getUserID())).append(',').append(neighbor.getSimilarity()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Start rebuilding the index from the data files in the background. The new snapshot replaces the current one when
+	 * it is ready, queries keep using the current snapshot until then.
+	 */
+	static String rebuild(Map<String, String> params, String body) {
+		if (!rebuilding.compareAndSet(false, true)) {
+			return "already rebuilding\n";
+		}
+		final long version = current.get().version + 1;
+		rebuilder.submit(() -> {
+			try {
+				long startTime = System.currentTimeMillis();
+				current.set(IndexSnapshot.build(mode, runnerArgs, threshold, version));
+				System.out.println("Index version " + version + " ready, took " + (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+			} catch (Throwable e) {
+				e.printStackTrace();
+			} finally {
+				rebuilding.set(false);
+			}
+		});
+		return "rebuilding version " + version + "\n";
+	}
+
+	static void stats(HttpExchange exchange) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("version ").append(current.get().version).append(rebuilding.get() ? " (rebuilding)" : "").append('\n');
+		for (Map.Entry<String, LatencyRecorder> entry : latencies.entrySet()) {
+			sb.append(entry.getKey()).append(' ').append(entry.getValue().summary()).append('\n');
+		}
+		send(exchange, 200, sb.toString());
+	}
+
+	private static List<Neighbor> sorted(Collection<Neighbor> neighbors) {
+		List<Neighbor> list = new ArrayList<Neighbor>(neighbors);
+		Collections.sort(list, Collections.reverseOrder());
+		return list;
+	}
+
+	private static Map<String, String> params(String rawQuery) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (rawQuery == null) {
+			return params;
+		}
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private static String body(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while ((read = in.read(buf)) > 0) {
+			out.write(buf, 0, read);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void send(HttpExchange exchange, int status, String response) throws IOException {
+		byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Binary columnar cache of a rating file, stored next to it as ratingFile + ".bin".
+ * 
+ * The cache is reused as long as the size and modification time of the text file are unchanged, otherwise the text file
+ * is parsed again and the cache is rewritten. Layout (big endian):
+ * 		- header: magic, version, source size, source mtime, rating encoding, number of users, number of ratings
+ * 		- the sorted distinct user IDs
+ * 		- per-user offsets into the rating columns (numUsers + 1 entries)
+ * 		- the movie IDs, grouped by user
+ * 		- the ratings, grouped by user, either as one byte holding twice the rating (when all ratings are multiples of 0.5)
+ * 		  or as 4 byte floats
+ * 
+ * Within a user the ratings keep the order of the text file.
+ */
+public class RatingCache {
+
+	static final int MAGIC = 0x52415443; // "RATC"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+	static final int ENCODING_HALF_STEPS = 0;
+	static final int ENCODING_FLOAT = 1;
+
+	/**
+	 * Load the ratings of a text rating file, through its binary cache when it is up to date.
+	 * The returned ratings are grouped by (ascending) user ID.
+	 * @param fileName the text rating file
+	 * @return the ratings
+	 * @throws IOException
+	 */
+	public static RatingColumns load(String fileName) throws IOException {
+		File source = new File(fileName);
+		File cache = cacheFile(fileName);
+
+		if (cache.exists()) {
+			RatingColumns columns = read(cache, source.length(), source.lastModified());
+			if (columns != null) {
+				return columns;
+			}
+		}
+
+		RatingColumns columns = groupByUser(RatingFileParser.parse(fileName));
+		try {
+			write(columns, cache, source.length(), source.lastModified());
+		} catch (IOException e) {
+			System.err.println("Could not write rating cache " + cache + ": " + e.getMessage());
+		}
+		return columns;
+	}
+
+	/**
+	 * The cache file belonging to a rating file.
+	 */
+	public static File cacheFile(String fileName) {
+		return new File(fileName + ".bin");
+	}
+
+	/**
+	 * Stable counting sort of the rows on user ID.
+	 * @param columns ratings in any order
+	 * @return the ratings grouped by ascending user ID
+	 */
+	static RatingColumns groupByUser(RatingColumns columns) {
+		int n = columns.size();
+		int[] userIDs = distinctSorted(columns.users, n);
+
+		int[] offsets = new int[userIDs.length + 1];
+		int[] userIndex = new int[n];
+		for (int row = 0; row < n; row++) {
+			userIndex[row] = Arrays.binarySearch(userIDs, columns.users[row]);
+			offsets[userIndex[row] + 1]++;
+		}
+		for (int u = 0; u < userIDs.length; u++) {
+			offsets[u + 1] += offsets[u];
+		}
+
+		int[] next = Arrays.copyOf(offsets, userIDs.length);
+		int[] users = new int[n];
+		int[] movies = new int[n];
+		float[] ratings = new float[n];
+		for (int row = 0; row < n; row++) {
+			int dst = next[userIndex[row]]++;
+			users[dst] = columns.users[row];
+			movies[dst] = columns.movies[row];
+			ratings[dst] = columns.ratings[row];
+		}
+		return new RatingColumns(users, movies, ratings, n);
+	}
+
+	private static int[] distinctSorted(int[] values, int n) {
+		int[] sorted = Arrays.copyOf(values, n);
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, distinct);
+	}
+
+	/**
+	 * Write ratings that are grouped by user to a cache file. The file is written next to the cache and then renamed,
+	 * so readers never see a partially written cache.
+	 */
+	static void write(RatingColumns columns, File cache, long sourceSize, long sourceModified) throws IOException {
+		int n = columns.size();
+		int[] userIDs = distinctSorted(columns.users, n);
+		int[] offsets = new int[userIDs.length + 1];
+		for (int row = 0, u = 0; row < n; row++) {
+			while (userIDs[u] != columns.users[row]) {
+				offsets[++u] = row;
+			}
+		}
+		offsets[userIDs.length] = n;
+
+		int encoding = ENCODING_HALF_STEPS;
+		for (int row = 0; row < n; row++) {
+			float doubled = columns.ratings[row] * 2;
+			if (doubled != Math.rint(doubled) || doubled < 0 || doubled > 255) {
+				encoding = ENCODING_FLOAT;
+				break;
+			}
+		}
+
+		File tmp = new File(cache.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceSize);
+			out.writeLong(sourceModified);
+			out.writeInt(encoding);
+			out.writeInt(userIDs.length);
+			out.writeInt(n);
+			for (int userID : userIDs) {
+				out.writeInt(userID);
+			}
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			for (int row = 0; row < n; row++) {
+				out.writeInt(columns.movies[row]);
+			}
+			for (int row = 0; row < n; row++) {
+				if (encoding == ENCODING_HALF_STEPS) {
+					out.writeByte((int) (columns.ratings[row] * 2));
+				} else {
+					out.writeFloat(columns.ratings[row]);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Memory-map a cache file.
+	 * @return the cached ratings, or null if the cache is stale or not a valid cache file
+	 */
+	static RatingColumns read(File cache, long sourceSize, long sourceModified) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(cache, "r")) {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+					|| buf.getLong() != sourceSize || buf.getLong() != sourceModified) {
+				return null;
+			}
+			int encoding = buf.getInt();
+			int numUsers = buf.getInt();
+			int n = buf.getInt();
+			long expected = HEADER_SIZE + 4L * numUsers + 4L * (numUsers + 1) + 4L * n
+					+ (encoding == ENCODING_HALF_STEPS ? 1L : 4L) * n;
+			if (channel.size() != expected) {
+				return null;
+			}
+
+			int[] userIDs = new int[numUsers];
+			buf.asIntBuffer().get(userIDs);
+			buf.position(buf.position() + 4 * numUsers);
+			int[] offsets = new int[numUsers + 1];
+			buf.asIntBuffer().get(offsets);
+			buf.position(buf.position() + 4 * (numUsers + 1));
+
+			int[] users = new int[n];
+			for (int u = 0; u < numUsers; u++) {
+				Arrays.fill(users, offsets[u], offsets[u + 1], userIDs[u]);
+			}
+			int[] movies = new int[n];
+			buf.asIntBuffer().get(movies);
+			buf.position(buf.position() + 4 * n);
+
+			float[] ratings = new float[n];
+			if (encoding == ENCODING_HALF_STEPS) {
+				for (int row = 0; row < n; row++) {
+					ratings[row] = (buf.get() & 0xff) / 2f;
+				}
+			} else {
+				buf.asFloatBuffer().get(ratings);
+			}
+			return new RatingColumns(users, movies, ratings, n);
+		}
+	}
+
+}
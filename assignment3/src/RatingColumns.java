@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Ratings stored as three primitive columns (user ID, movie ID, rating) instead of one object per rating.
+ * Row i of the columns holds the i-th rating, in the order in which the ratings were read.
+ */
+public class RatingColumns {
+
+	int[] users;
+	int[] movies;
+	float[] ratings;
+	int size;
+
+	/**
+	 * Construct empty columns with room for the given number of ratings.
+	 * @param capacity initial number of rows
+	 */
+	public RatingColumns(int capacity){
+		capacity = Math.max(capacity, 16);
+		users = new int[capacity];
+		movies = new int[capacity];
+		ratings = new float[capacity];
+	}
+
+	/**
+	 * Construct columns around existing arrays, only the first size rows are used.
+	 */
+	public RatingColumns(int[] users, int[] movies, float[] ratings, int size){
+		this.users = users;
+		this.movies = movies;
+		this.ratings = ratings;
+		this.size = size;
+	}
+
+	/**
+	 * Append one rating, growing the columns if needed.
+	 */
+	public void add(int userID, int movieID, float rating){
+		if (size == users.length){
+			int capacity = users.length + (users.length >> 1);
+			users = Arrays.copyOf(users, capacity);
+			movies = Arrays.copyOf(movies, capacity);
+			ratings = Arrays.copyOf(ratings, capacity);
+		}
+		users[size] = userID;
+		movies[size] = movieID;
+		ratings[size] = rating;
+		size++;
+	}
+
+	/**
+	 * Concatenate several column sets, keeping their order.
+	 * @param parts the columns to concatenate
+	 * @return one set of columns containing all rows
+	 */
+	public static RatingColumns concat(RatingColumns[] parts){
+		int total = 0;
+		for (RatingColumns part : parts){
+			total += part.size;
+		}
+		RatingColumns all = new RatingColumns(total);
+		for (RatingColumns part : parts){
+			System.arraycopy(part.users, 0, all.users, all.size, part.size);
+			System.arraycopy(part.movies, 0, all.movies, all.size, part.size);
+			System.arraycopy(part.ratings, 0, all.ratings, all.size, part.size);
+			all.size += part.size;
+		}
+		return all;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int getUserID(int row){
+		return users[row];
+	}
+
+	public int getMovieID(int row){
+		return movies[row];
+	}
+
+	public float getRating(int row){
+		return ratings[row];
+	}
+
+}
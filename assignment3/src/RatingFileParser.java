@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses MovieLens rating files (user::movie::rating::timestamp or tab separated) into RatingColumns.
+ * 
+ * The file is memory-mapped and cut into newline aligned chunks that are parsed in parallel, straight from the bytes.
+ * No Strings, regular expressions or per-rating objects are created. The chunks are concatenated in file order,
+ * so the result is the same as reading the file line by line.
+ */
+public class RatingFileParser {
+
+	// a single mapping can not exceed 2GB, keep chunks well below that
+	static final long MAX_CHUNK_SIZE = 1L << 28;
+
+	/**
+	 * Parse a rating file using all available processors.
+	 * @param fileName the rating file
+	 * @return the ratings in file order
+	 * @throws IOException
+	 */
+	public static RatingColumns parse(String fileName) throws IOException {
+		return parse(fileName, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parse a rating file using the given number of threads.
+	 * @param fileName the rating file
+	 * @param numThreads number of threads to parse chunks with
+	 * @return the ratings in file order
+	 * @throws IOException
+	 */
+	public static RatingColumns parse(String fileName, int numThreads) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			final FileChannel channel = file.getChannel();
+			long[] bounds = chunkBounds(channel, numThreads);
+			int numChunks = bounds.length - 1;
+			RatingColumns[] parts = new RatingColumns[numChunks];
+
+			if (numChunks == 1 || numThreads <= 1) {
+				for (int c = 0; c < numChunks; c++) {
+					parts[c] = parseChunk(channel, bounds[c], bounds[c+1]);
+				}
+				return RatingColumns.concat(parts);
+			}
+
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numChunks));
+			try {
+				List<Future<RatingColumns>> futures = new ArrayList<Future<RatingColumns>>();
+				for (int c = 0; c < numChunks; c++) {
+					final long start = bounds[c];
+					final long end = bounds[c+1];
+					futures.add(pool.submit(() -> parseChunk(channel, start, end)));
+				}
+				for (int c = 0; c < numChunks; c++) {
+					parts[c] = futures.get(c).get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while parsing " + fileName, e);
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to parse " + fileName, e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+			return RatingColumns.concat(parts);
+		}
+	}
+
+	/**
+	 * Splits the file in chunks that start right after a newline (or at the start of the file).
+	 * @return chunk boundaries, chunk i spans [bounds[i], bounds[i+1])
+	 */
+	private static long[] chunkBounds(FileChannel channel, int numThreads) throws IOException {
+		long size = channel.size();
+		int numChunks = (int) Math.max(Math.max(numThreads, 1), (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+		// tiny files are not worth splitting
+		if (size < (1 << 16)) {
+			numChunks = 1;
+		}
+
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer buf = ByteBuffer.allocate(256);
+		for (int c = 1; c < numChunks; c++) {
+			long pos = Math.max(size * c / numChunks, bounds.get(bounds.size() - 1));
+			boolean found = false;
+			while (!found && pos < size) {
+				buf.clear();
+				int read = channel.read(buf, pos);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					if (buf.get(i) == '\n') {
+						pos += i + 1;
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					pos += read;
+				}
+			}
+			if (pos >= size) {
+				break;
+			}
+			if (pos > bounds.get(bounds.size() - 1)) {
+				bounds.add(pos);
+			}
+		}
+		bounds.add(size);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the lines in [start, end) of the file.
+	 */
+	private static RatingColumns parseChunk(FileChannel channel, long start, long end) throws IOException {
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		int limit = buf.limit();
+		// MovieLens lines are ~20-30 bytes
+		RatingColumns columns = new RatingColumns(limit / 24);
+
+		int pos = 0;
+		while (pos < limit) {
+			// skip empty lines
+			byte b = buf.get(pos);
+			if (b == '\n' || b == '\r') {
+				pos++;
+				continue;
+			}
+			// skip lines that do not start with a user ID (e.g. a header)
+			if (!isDigit(b)) {
+				while (pos < limit && buf.get(pos) != '\n') {
+					pos++;
+				}
+				continue;
+			}
+
+			int userID = 0;
+			while (pos < limit && isDigit(b = buf.get(pos))) {
+				userID = userID * 10 + (b - '0');
+				pos++;
+			}
+			pos = skipSeparator(buf, pos, limit);
+
+			int movieID = 0;
+			while (pos < limit && isDigit(b = buf.get(pos))) {
+				movieID = movieID * 10 + (b - '0');
+				pos++;
+			}
+			pos = skipSeparator(buf, pos, limit);
+
+			// rating: digits with an optional fractional part
+			long mantissa = 0;
+			long scale = 1;
+			while (pos < limit && isDigit(b = buf.get(pos))) {
+				mantissa = mantissa * 10 + (b - '0');
+				pos++;
+			}
+			if (pos < limit && buf.get(pos) == '.') {
+				pos++;
+				while (pos < limit && isDigit(b = buf.get(pos))) {
+					mantissa = mantissa * 10 + (b - '0');
+					scale *= 10;
+					pos++;
+				}
+			}
+			columns.add(userID, movieID, (float) ((double) mantissa / scale));
+
+			// ignore the rest of the line (timestamp)
+			while (pos < limit && buf.get(pos) != '\n') {
+				pos++;
+			}
+			pos++;
+		}
+		return columns;
+	}
+
+	private static int skipSeparator(ByteBuffer buf, int pos, int limit) {
+		while (pos < limit) {
+			byte b = buf.get(pos);
+			if (b != ':' && b != '\t' && b != ' ' && b != ',') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+}
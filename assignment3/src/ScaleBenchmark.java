@@ -0,0 +1,306 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * End-to-end benchmark on synthetic data (see DataGenerator) at increasing scales. Every phase of the DocumentRunner or
+ * MovieRunner pipeline is timed, and the pairs (documents) or neighbors (movies) found with LSH are compared to the exact
+ * brute force results to report the recall of LSH. The precision is that of the candidates: the fraction of the candidate
+ * pairs (pairs sharing a bucket) that turned out to be above the threshold when they were verified. The found pairs
+ * themselves are all verified, so their precision against the exact pairs would always be 1.
+ * Example commands:
+ * 				java ScaleBenchmark -type documents -scales 1000,2000,4000 -threshold 0.5 -shingleLength 5 -numHashes 100 -numBands 20
+ * 				java ScaleBenchmark -type movies -scales 1000,2000,4000 -threshold 0.2 -numHashes 100 -numBands 50
+ * For documents the scale is the number of documents, for movies the number of users (with scale / 2 movies).
+ * The brute force search is quadratic, -maxExact 4000 (the default) skips it, and the recall, above 4000 objects.
+ * For movies, mismatches counts the users of which the single user neighbor query (used for the predictions) does not
+ * return the same neighbors as the batch query, it should be 0.
+ * The generated data is written to -dir (the system temp directory by default) and removed afterwards.
+ */
+public class ScaleBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		String type = "documents";
+		int[] scales = {1000, 2000, 4000};
+		double threshold = 0.5;
+		int shingleLength = 5;
+		int numHashes = 100;
+		int numBands = 20;
+		int maxExact = 4000;
+		int seed = 1;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		String dir = System.getProperty("java.io.tmpdir");
+
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String arg = args[i];
+			if (arg.equals("-type")) {
+				if (!args[i+1].equals("documents") && !args[i+1].equals("movies")){
+					System.err.println("The benchmark type should either be documents or movies");
+				}
+				type = args[i+1];
+			}else if (arg.equals("-scales")) {
+				String[] parts = args[i+1].split(",");
+				scales = new int[parts.length];
+				for (int s = 0; s < parts.length; s++) {
+					scales[s] = Integer.parseInt(parts[s].trim());
+				}
+			}else if (arg.equals("-threshold")) {
+				threshold = Double.parseDouble(args[i+1]);
+			}else if (arg.equals("-shingleLength")) {
+				shingleLength = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-numHashes")) {
+				numHashes = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-numBands")) {
+				numBands = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-maxExact")) {
+				maxExact = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-seed")) {
+				seed = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-threads")) {
+				numThreads = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-dir")) {
+				dir = args[i+1];
+			}
+			i += 2;
+		}
+
+		for (int scale : scales) {
+			if (type.equals("documents")) {
+				benchmarkDocuments(dir, scale, threshold, shingleLength, numHashes, numBands, scale <= maxExact, numThreads, seed);
+			}else{
+				benchmarkMovies(dir, scale, threshold, numHashes, numBands, scale <= maxExact, numThreads, seed);
+			}
+		}
+	}
+
+	/**
+	 * Generates a corpus of numDocs documents (10% near-duplicates), then times reading and shingling, building the
+	 * LSH index, the LSH pair search and the exact brute force search.
+	 */
+	static void benchmarkDocuments(String dir, int numDocs, double threshold, int shingleLength, int numHashes,
+			int numBands, boolean exact, int numThreads, int seed) throws IOException {
+		File corpusFile = new File(dir, "benchmark-corpus-" + numDocs + ".txt");
+		Timer timer = new Timer("documents=" + numDocs);
+		DataGenerator.generateCorpus(corpusFile.getPath(), numDocs, 200, 0.1, 0.05, new Random(seed));
+		timer.phase("generate");
+
+		try (CorpusReader corpus = new CorpusReader(corpusFile.getPath(), "lines", null)) {
+			DocumentHandler documents = new DocumentHandler(corpus, -1, shingleLength, numThreads);
+			timer.phase("shingle");
+
+			LSH lsh = new LSH(documents.getObjectMapping(), numHashes, numBands, documents.getNumShingles(), new Random(seed), numThreads);
+			timer.phase("lsh-index");
+			long[] found = pairKeys(lsh.getSimilarPairListAboveThreshold(threshold));
+			timer.phase("lsh-pairs");
+
+			long[] truth = null;
+			if (exact) {
+				// the blocked batch neighbor query compares sorted arrays, which is much faster than the pair search on sets
+				BruteForceSearch bf = new BruteForceSearch(documents.getObjectMapping());
+				truth = neighborKeys(bf.getNeighborsAboveThreshold(allObjects(documents.getNumDocuments()), threshold));
+				timer.phase("bf-pairs");
+			}
+			timer.report(found, truth, lsh.countCandidatePairs(), "");
+		} finally {
+			corpusFile.delete();
+		}
+	}
+
+	/**
+	 * Generates ratings for numUsers users and numUsers / 2 movies, then times loading the ratings, building the LSH
+	 * index, the neighbor search for all users, predicting the test ratings and the brute force neighbor search.
+	 */
+	static void benchmarkMovies(String dir, int numUsers, double threshold, int numHashes, int numBands, boolean exact,
+			int numThreads, int seed) throws IOException {
+		String prefix = new File(dir, "benchmark-ratings-" + numUsers).getPath();
+		Timer timer = new Timer("users=" + numUsers);
+		DataGenerator.generateRatings(prefix, numUsers, Math.max(100, numUsers / 2), 0.02, 20, 0.05, new Random(seed));
+		timer.phase("generate");
+
+		try {
+			MovieRunner.ratings = new MovieHandler(prefix + ".train");
+			MovieRunner.threshold = threshold;
+			MovieRunner.createCaches();
+			timer.phase("load");
+
+			MovieHandler ratings = MovieRunner.ratings;
+			LSH lsh = new LSH(ratings.getObjectMapping(), numHashes, numBands, ratings.getNumValues(), new Random(seed), numThreads, ratings.getSets());
+			MovieRunner.searcher = lsh;
+			timer.phase("lsh-index");
+
+			int[] users = allObjects(ratings.getNumUsers());
+			Map<Integer, Set<Neighbor>> neighbors = lsh.getNeighborsAboveThreshold(users, threshold);
+			long[] found = neighborKeys(neighbors);
+			timer.phase("lsh-neighbors");
+
+			RatingColumns test = RatingCache.load(prefix + ".test");
+			double summedErrorSq = 0;
+			int predicted = 0;
+			for (int row = 0; row < test.size(); row++) {
+				double estimate = MovieRunner.getPrediction(test.getUserID(row), test.getMovieID(row));
+				if (!Double.isNaN(estimate)) {
+					summedErrorSq += Math.pow(test.getRating(row) - estimate, 2);
+					predicted++;
+				}
+			}
+			timer.phase("predict");
+
+			long[] truth = null;
+			if (exact) {
+				truth = neighborKeys(new BruteForceSearch(ratings.getObjectMapping(), ratings.getSets()).getNeighborsAboveThreshold(users, threshold));
+				timer.phase("bf-neighbors");
+			}
+			timer.report(found, truth, lsh.countCandidatePairs(), " rmse=" + String.format("%.4f", Math.sqrt(summedErrorSq / predicted))
+					+ " predicted=" + predicted + "/" + test.size() + " mismatches=" + countMismatches(lsh, neighbors, threshold));
+		} finally {
+			for (String suffix : new String[] {".train", ".test", ".train.bin", ".test.bin"}) {
+				new File(prefix + suffix).delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the distinct unordered pairs of a pair list, as sorted packed keys (smallest id first, self pairs dropped).
+	 */
+	static long[] pairKeys(SimilarPairList pairs) {
+		long[] keys = new long[pairs.size()];
+		int n = 0;
+		for (int p = 0; p < pairs.size(); p++) {
+			int id1 = pairs.getId1(p);
+			int id2 = pairs.getId2(p);
+			if (id1 != id2) {
+				keys[n++] = SimilarPairList.pack(Math.min(id1, id2), Math.max(id1, id2));
+			}
+		}
+		return distinct(keys, n);
+	}
+
+	/**
+	 * Returns the distinct unordered (object, neighbor) pairs of a neighbor query, as sorted packed keys.
+	 */
+	static long[] neighborKeys(Map<Integer, Set<Neighbor>> neighbors) {
+		int total = 0;
+		for (Set<Neighbor> set : neighbors.values()) {
+			total += set.size();
+		}
+		long[] keys = new long[total];
+		int n = 0;
+		for (Map.Entry<Integer, Set<Neighbor>> entry : neighbors.entrySet()) {
+			int id1 = entry.getKey();
+			for (Neighbor neighbor : entry.getValue()) {
+				int id2 = neighbor.getUserID();
+				if (id1 != id2) {
+					keys[n++] = SimilarPairList.pack(Math.min(id1, id2), Math.max(id1, id2));
+				}
+			}
+		}
+		return distinct(keys, n);
+	}
+
+	/**
+	 * Returns the number of objects of which the single object query of the searcher does not return the same neighbors
+	 * (the same ids, each once, with the same similarities) as the batch query did.
+	 */
+	static int countMismatches(SimilaritySearcher searcher, Map<Integer, Set<Neighbor>> batch, double threshold) {
+		int mismatches = 0;
+		for (Map.Entry<Integer, Set<Neighbor>> entry : batch.entrySet()) {
+			if (!Arrays.equals(sortedNeighbors(entry.getValue()), sortedNeighbors(searcher.getNeighborsAboveThreshold(entry.getKey(), threshold)))) {
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Returns the ids and similarities of the neighbors, sorted on id.
+	 */
+	private static String[] sortedNeighbors(Set<Neighbor> neighbors) {
+		Neighbor[] sorted = neighbors.toArray(new Neighbor[0]);
+		Arrays.sort(sorted, (a, b) -> Integer.compare(a.getUserID(), b.getUserID()));
+		String[] keys = new String[sorted.length];
+		for (int n = 0; n < sorted.length; n++) {
+			keys[n] = sorted[n].getUserID() + ":" + sorted[n].getSimilarity();
+		}
+		return keys;
+	}
+
+	private static int[] allObjects(int n) {
+		int[] objects = new int[n];
+		for (int i = 0; i < n; i++) {
+			objects[i] = i;
+		}
+		return objects;
+	}
+
+	private static long[] distinct(long[] keys, int n) {
+		Arrays.sort(keys, 0, n);
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (m == 0 || keys[i] != keys[m - 1]) {
+				keys[m++] = keys[i];
+			}
+		}
+		return Arrays.copyOf(keys, m);
+	}
+
+	/**
+	 * Returns the number of keys in both sorted arrays.
+	 */
+	static int intersection(long[] a, long[] b) {
+		int i = 0, j = 0, count = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			}else if (a[i] > b[j]) {
+				j++;
+			}else{
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Collects the phase timings of one benchmark run and prints them on one line.
+	 */
+	static class Timer {
+
+		private final StringBuilder line;
+		private long start = System.nanoTime();
+
+		Timer(String name) {
+			line = new StringBuilder(name);
+		}
+
+		void phase(String name) {
+			long now = System.nanoTime();
+			line.append(' ').append(name).append('=').append(String.format("%.3fs", (now - start) / 1e9));
+			start = now;
+		}
+
+		/**
+		 * @param found the verified pairs found with LSH
+		 * @param truth the exact pairs, or null if the brute force search was skipped
+		 * @param candidates the number of candidate pairs LSH verified
+		 */
+		void report(long[] found, long[] truth, long candidates, String extra) {
+			line.append(" pairs=").append(found.length);
+			line.append(" candidates=").append(candidates);
+			line.append(" precision=").append(String.format("%.4f", candidates == 0 ? 1.0 : (double) found.length / candidates));
+			if (truth != null) {
+				int common = intersection(found, truth);
+				line.append(" exact=").append(truth.length);
+				line.append(" recall=").append(String.format("%.4f", truth.length == 0 ? 1.0 : (double) common / truth.length));
+			}
+			line.append(extra);
+			System.out.println(line);
+		}
+	}
+
+}
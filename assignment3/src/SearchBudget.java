@@ -0,0 +1,80 @@
+/**
+ * Time budget of an anytime similarity search, see SimilaritySearcher.getSimilarPairsAboveThreshold(double, PairSink, SearchBudget).
+ *
+ * The search stops at the deadline, or as soon as another thread calls cancel(), and keeps the pairs it found so far.
+ * It reports its progress here: the number of candidate pairs it covered out of all candidate pairs, which other
+ * threads can read while it runs.
+ */
+public class SearchBudget {
+
+	private final long deadline; // System.nanoTime() at which the search stops
+	private volatile boolean cancelled;
+	private volatile long covered;
+	private volatile long total;
+	private volatile boolean complete;
+
+	/**
+	 * @param millis the time the search may take from now, no deadline if not positive
+	 */
+	public SearchBudget(long millis) {
+		deadline = millis > 0 ? System.nanoTime() + millis * 1000000L : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Stop the search, it returns the pairs it found so far.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns true if the search should stop, because it was cancelled or the deadline passed.
+	 */
+	public boolean isExhausted() {
+		return cancelled || (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0);
+	}
+
+	/**
+	 * Called by the search: covered of the total candidate pairs are verified (or ruled out).
+	 */
+	void progress(long covered, long total) {
+		this.covered = covered;
+		this.total = total;
+	}
+
+	/**
+	 * Called by the search when all candidate pairs are covered.
+	 */
+	void finish() {
+		complete = true;
+	}
+
+	/**
+	 * Returns the number of candidate pairs that were covered.
+	 */
+	public long getCovered() {
+		return covered;
+	}
+
+	/**
+	 * Returns the number of candidate pairs.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the fraction of the candidate pairs that were covered.
+	 */
+	public double getCoverage() {
+		return complete ? 1.0 : total == 0 ? 0.0 : (double) covered / total;
+	}
+
+	/**
+	 * Returns true if the search covered all candidate pairs, so its result is the result without a budget.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+}
@@ -0,0 +1,326 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * LSH with the bands split over separate worker processes (JVMs), so the banding of one corpus can use the memory and
+ * cores of several processes.
+ *
+ * Worker i of n reads the data itself (with the arguments of the MovieRunner or DocumentRunner), computes only the
+ * signature rows of its range of bands, and writes the candidate pairs of these bands to a file, sorted and without
+ * duplicates. The coordinator merges the files, dropping pairs that several bands (or workers) found, and verifies
+ * every candidate once. Like LSH.getSimilarPairsAboveThreshold, the candidates of a bucket are all ordered pairs of its
+ * members (including an object with itself), so the result is exactly the result of a single LSH with the same seed.
+ * Example command (4 workers on this host):
+ * 				java DocumentRunner -threshold 0.5 -method sharded -shards 4 -maxFiles 100 -dir articles -shingleLength 5 -numHashes 100 -numBands 20
+ */
+public class ShardedLSH extends SimilaritySearcher {
+
+	final String mode;
+	final String[] runnerArgs;
+	final int numShards;
+	volatile PairNeighbors pairNeighbors;
+
+	/**
+	 * @param objectMapping objects and their set representations, used to verify the candidates
+	 * @param mode movies or documents, the runner whose arguments are passed to the workers
+	 * @param runnerArgs the runner arguments, the workers read the data and seed their hash functions with them
+	 * @param numShards number of worker processes, the bands are split evenly over them
+	 */
+	public ShardedLSH(Map<Integer, Set<Integer>> objectMapping, String mode, String[] runnerArgs, int numShards) {
+		super(objectMapping);
+		this.mode = mode;
+		this.runnerArgs = runnerArgs;
+		this.numShards = numShards;
+	}
+
+	/**
+	 * Worker entry point: ShardedLSH mode shard numShards candidateFile runnerArgs...
+	 */
+	public static void main(String[] args) throws IOException {
+		String mode = args[0];
+		int shard = Integer.parseInt(args[1]);
+		int numShards = Integer.parseInt(args[2]);
+		File candidateFile = new File(args[3]);
+		String[] runnerArgs = withMethod(Arrays.copyOfRange(args, 4, args.length), "bf");
+
+		Map<Integer, Set<Integer>> objectMapping;
+		int numValues;
+		if (mode.equals("movies")) {
+			objectMapping = MovieRunner.constructSimilaritySearcher(runnerArgs).objectMapping;
+			numValues = MovieRunner.ratings.getNumValues();
+		}else{
+			objectMapping = DocumentRunner.constructSimilaritySearcher(runnerArgs).objectMapping;
+			numValues = DocumentRunner.documents.getNumShingles();
+		}
+
+		int numHashes = intArg(runnerArgs, "-numHashes", -1);
+		int numBands = intArg(runnerArgs, "-numBands", -1);
+		int seed = intArg(runnerArgs, "-seed", -1);
+		int numThreads = intArg(runnerArgs, "-threads", Runtime.getRuntime().availableProcessors());
+		int bandFrom = (int) ((long) numBands * shard / numShards);
+		int bandTo = (int) ((long) numBands * (shard + 1) / numShards);
+		writeCandidates(objectMapping, numHashes, numBands, numValues, new Random(seed), bandFrom, bandTo, numThreads, candidateFile);
+	}
+
+	/**
+	 * Compute the signature rows of bands bandFrom to bandTo (exclusive) and write the candidate pairs of these bands
+	 * to a file, as sorted distinct packed pairs.
+	 * The hash functions are drawn like in the LSH constructor, so the rows are equal to those of a single LSH.
+	 */
+	static void writeCandidates(Map<Integer, Set<Integer>> objectMapping, int numHashes, int numBands, int numValues, Random rand,
+			int bandFrom, int bandTo, int numThreads, File candidateFile) throws IOException {
+		int prime = Primes.findLeastPrimeNumber(numValues);
+		int[][] hashCoefficients = LSH.constructHashCoefficients(numHashes, prime, rand);
+		int rowsPerBand = numHashes / numBands;
+		if (bandFrom == bandTo) {
+			new FileOutputStream(candidateFile).close(); // more workers than bands
+			return;
+		}
+		int rowFrom = bandFrom * rowsPerBand;
+		int rowTo = bandTo * rowsPerBand;
+		int[][] rangeCoefficients = {
+				Arrays.copyOfRange(hashCoefficients[0], rowFrom, rowTo), Arrays.copyOfRange(hashCoefficients[1], rowFrom, rowTo)};
+		int[][] signatureMatrix = LSH.constructSignatureMatrix(objectMapping, LSH.constructHashTable(rangeCoefficients, numValues, prime));
+		List<Map<String, Set<Integer>>> bandToBuckets = LSH.lsh(signatureMatrix, bandTo - bandFrom, numThreads);
+
+		long[] candidates = new long[1024];
+		int size = 0;
+		for (Map<String, Set<Integer>> band : bandToBuckets) {
+			for (Set<Integer> bucket : band.values()) {
+				for (int first : bucket) {
+					for (int second : bucket) {
+						if (size == candidates.length) {
+							candidates = distinct(candidates, size);
+							size = candidates.length;
+							candidates = Arrays.copyOf(candidates, Math.max(1024, size * 2));
+						}
+						candidates[size++] = SimilarPairList.pack(first, second);
+					}
+				}
+			}
+		}
+		candidates = distinct(candidates, size);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(candidateFile), 1 << 16))) {
+			for (long candidate : candidates) {
+				out.writeLong(candidate);
+			}
+		}
+	}
+
+	private static long[] distinct(long[] values, int size) {
+		Arrays.sort(values, 0, size);
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (n == 0 || values[i] != values[n - 1]) {
+				values[n++] = values[i];
+			}
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	/**
+	 * Returns the pairs with similarity above threshold (approximate).
+	 */
+	@Override
+	public Set<SimilarPair> getSimilarPairsAboveThreshold(double threshold) {
+		final Set<SimilarPair> result = new HashSet<SimilarPair>();
+		getSimilarPairsAboveThreshold(threshold, new PairSink() {
+			@Override
+			public void accept(int id1, int id2, double similarity) {
+				result.add(new SimilarPair(id1, id2, similarity));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Run the workers, then merge and verify their candidates. The pairs are passed to the sink in (id1, id2) order.
+	 */
+	@Override
+	public void getSimilarPairsAboveThreshold(double threshold, PairSink sink) {
+		List<File> files = new ArrayList<File>();
+		try {
+			List<Process> workers = new ArrayList<Process>();
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int shard = 0; shard < numShards; shard++) {
+				File candidateFile = File.createTempFile("candidates-" + shard + "-", ".bin");
+				candidateFile.deleteOnExit();
+				files.add(candidateFile);
+
+				List<String> command = new ArrayList<String>();
+				command.addAll(Arrays.asList(java, "-cp", System.getProperty("java.class.path"), "ShardedLSH",
+						mode, Integer.toString(shard), Integer.toString(numShards), candidateFile.getPath()));
+				command.addAll(Arrays.asList(runnerArgs));
+				ProcessBuilder builder = new ProcessBuilder(command);
+				// stdout may be the pair output, the workers' progress messages are dropped
+				builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+				builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+				workers.add(builder.start());
+			}
+			for (int shard = 0; shard < numShards; shard++) {
+				int exitCode = workers.get(shard).waitFor();
+				if (exitCode != 0) {
+					throw new Error("Worker " + shard + " failed with exit code " + exitCode);
+				}
+			}
+			verifyCandidates(files, threshold, sink);
+		} catch (IOException e) {
+			throw new Error("Could not run the workers", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("Interrupted while waiting for the workers", e);
+		} finally {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Merge the sorted candidate files and verify every distinct candidate once.
+	 */
+	void verifyCandidates(List<File> files, double threshold, PairSink sink) throws IOException {
+		Map<Integer, int[]> sortedSets = new HashMap<Integer, int[]>();
+		for (Map.Entry<Integer, Set<Integer>> entry : objectMapping.entrySet()) {
+			sortedSets.put(entry.getKey(), toSortedArray(entry.getValue()));
+		}
+
+		int tp = 0;
+		int fp = 0;
+		PriorityQueue<CandidateFile> queue = new PriorityQueue<CandidateFile>();
+		try {
+			for (File file : files) {
+				CandidateFile candidates = new CandidateFile(file);
+				if (candidates.next()) {
+					queue.add(candidates);
+				}else{
+					candidates.close();
+				}
+			}
+			long last = -1;
+			while (!queue.isEmpty()) {
+				CandidateFile candidates = queue.poll();
+				long pair = candidates.pair;
+				if (candidates.next()) {
+					queue.add(candidates);
+				}else{
+					candidates.close();
+				}
+				if (pair == last) {
+					continue; // also found by another worker
+				}
+				last = pair;
+
+				int first = (int) (pair >>> 32);
+				int second = (int) pair;
+				double similarity = jaccardSimilarity(sortedSets.get(first), sortedSets.get(second));
+				if (similarity > threshold) {
+					sink.accept(first, second, similarity);
+					tp++;
+				}else{
+					fp++;
+				}
+			}
+		} finally {
+			for (CandidateFile candidates : queue) {
+				candidates.close();
+			}
+		}
+		System.err.println("True Positives: " + tp + "   False Positives: " + fp);
+	}
+
+	/**
+	 * Get the objects that have a similarity above threshold thr to the object identified by the given object id objID.
+	 * The similar pairs are computed by the workers on the first query and kept, like in LSH (a lower threshold runs
+	 * the workers again).
+	 */
+	@Override
+	public Set<Neighbor> getNeighborsAboveThreshold(int objID, double thr) {
+		PairNeighbors neighbors = pairNeighbors;
+		if (neighbors == null || !neighbors.covers(thr)) {
+			neighbors = new PairNeighbors(getSimilarPairsAboveThreshold(thr), thr);
+			pairNeighbors = neighbors;
+		}
+		return neighbors.get(objID, thr);
+	}
+
+	/**
+	 * Returns a copy of the runner arguments with the -method value replaced (or added).
+	 */
+	static String[] withMethod(String[] args, String method) {
+		for (int i = args.length - 2; i >= 0; i--) {
+			if (args[i].equals("-method")) {
+				String[] copy = args.clone();
+				copy[i + 1] = method;
+				return copy;
+			}
+		}
+		String[] copy = Arrays.copyOf(args, args.length + 2);
+		copy[args.length] = "-method";
+		copy[args.length + 1] = method;
+		return copy;
+	}
+
+	/**
+	 * Returns the value of an integer runner argument, like the runners the last occurrence counts.
+	 */
+	private static int intArg(String[] args, String name, int defaultValue) {
+		int value = defaultValue;
+		for (int i = 0; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			if (args[i].equals(name)) {
+				value = Integer.parseInt(args[i + 1]);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Reader of one candidate file, ordered on its current pair.
+	 */
+	private static class CandidateFile implements Comparable<CandidateFile>, Closeable {
+		final DataInputStream in;
+		long pair;
+
+		CandidateFile(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		boolean next() throws IOException {
+			try {
+				pair = in.readLong();
+				return true;
+			} catch (EOFException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public int compareTo(CandidateFile other) {
+			return Long.compare(pair, other.pair);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * On-disk store of sorted shingle arrays, one per object.
+ * 
+ * Objects are appended one at a time while the corpus is streamed, only the offset index is kept in memory.
+ * After finish() the file is memory-mapped and sets are read back on demand, e.g. to verify LSH candidates.
+ * asMap() gives an objectMapping view, every get then reads the set from disk.
+ */
+public class ShingleStore implements ObjectSets, Closeable {
+
+	// ints per mapped segment, a single mapping can not exceed 2GB
+	static final int SEGMENT_SHIFT = 28;
+	static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+	private final File file;
+	private DataOutputStream out;
+	private long[] offsets = new long[1024]; // offsets[obj] is the index of the first int of obj
+	private int size;
+	private MappedByteBuffer[] segments;
+
+	/**
+	 * Create a new store in the given file, overwriting it.
+	 */
+	public ShingleStore(File file) throws IOException {
+		this.file = file;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+
+	/**
+	 * Append the set of the next object.
+	 * @param sortedSet the set as a sorted array
+	 * @return the id of the object
+	 */
+	public int append(int[] sortedSet) throws IOException {
+		if (size + 1 == offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		for (int value : sortedSet) {
+			out.writeInt(value);
+		}
+		offsets[size + 1] = offsets[size] + sortedSet.length;
+		return size++;
+	}
+
+	/**
+	 * Stop appending and map the file for reading.
+	 */
+	public void finish() throws IOException {
+		out.close();
+		out = null;
+
+		long numInts = offsets[size];
+		segments = new MappedByteBuffer[(int) ((numInts >> SEGMENT_SHIFT) + 1)];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			for (int s = 0; s < segments.length; s++) {
+				long start = (long) s << SEGMENT_SHIFT;
+				long length = Math.min(numInts - start, 1L << SEGMENT_SHIFT);
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, 4 * start, 4 * length);
+			}
+		}
+	}
+
+	private int intAt(long index) {
+		return segments[(int) (index >> SEGMENT_SHIFT)].getInt((int) (index & SEGMENT_MASK) << 2);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of elements in the set of obj.
+	 */
+	public int setSize(int obj) {
+		return (int) (offsets[obj + 1] - offsets[obj]);
+	}
+
+	@Override
+	public int[] get(int obj) {
+		int[] set = new int[setSize(obj)];
+		long start = offsets[obj];
+		for (int i = 0; i < set.length; i++) {
+			set[i] = intAt(start + i);
+		}
+		return set;
+	}
+
+	/**
+	 * Jaccard similarity as a merge of the two mapped arrays, without copying them.
+	 */
+	@Override
+	public double jaccard(int obj1, int obj2) {
+		long i = offsets[obj1];
+		long iEnd = offsets[obj1 + 1];
+		long j = offsets[obj2];
+		long jEnd = offsets[obj2 + 1];
+		int intersection = 0;
+		if (i < iEnd && j < jEnd) {
+			int a = intAt(i);
+			int b = intAt(j);
+			while (true) {
+				if (a < b) {
+					if (++i == iEnd) break;
+					a = intAt(i);
+				}else if (a > b) {
+					if (++j == jEnd) break;
+					b = intAt(j);
+				}else{
+					intersection++;
+					if (++i == iEnd || ++j == jEnd) break;
+					a = intAt(i);
+					b = intAt(j);
+				}
+			}
+		}
+		int union = setSize(obj1) + setSize(obj2) - intersection;
+		if (union == 0) {
+			return 0;
+		}
+		return (double) intersection / union;
+	}
+
+	/**
+	 * Delete the backing file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			out.close();
+		}
+		segments = null;
+		file.delete();
+	}
+
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Times the loop shapes of the signature construction against their references, and checks that the signatures are
+ * identical:
+ * 		- table hashes: LSH.constructSignatureMatrix, which lowers a contiguous column per object, against
+ * 		  constructSignatureMatrixByEntry, which updates one entry of the matrix at a time
+ * 		- computed hashes: MinHasher.signature, with a branch-free Mersenne reduction, against signatureWithModulo, with
+ * 		  the % operator and a branch per hash function
+ * The loops are scalar Java, there is no Vector API path (jdk.incubator.vector would have to be added with
+ * --add-modules to every compile and run of these classes); whatever vectorization there is, is up to the JIT.
+ * Example command:
+ * 				java SignatureLoopBenchmark -numObjects 2000 -setSize 500 -numValues 100000 -numHashes 128 -repeat 5
+ */
+public class SignatureLoopBenchmark {
+
+	public static void main(String[] args) {
+		int numObjects = 2000;
+		int setSize = 500;
+		int numValues = 100000;
+		int numHashes = 128;
+		int repeat = 5;
+		int seed = 1;
+
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String arg = args[i];
+			if (arg.equals("-numObjects")) {
+				numObjects = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-setSize")) {
+				setSize = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-numValues")) {
+				numValues = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-numHashes")) {
+				numHashes = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-repeat")) {
+				repeat = Integer.parseInt(args[i+1]);
+			}else if (arg.equals("-seed")) {
+				seed = Integer.parseInt(args[i+1]);
+			}
+			i += 2;
+		}
+
+		Random rand = new Random(seed);
+		Map<Integer, Set<Integer>> objectMapping = new HashMap<Integer, Set<Integer>>();
+		int[][] sets = new int[numObjects][];
+		for (int obj = 0; obj < numObjects; obj++) {
+			Set<Integer> set = new HashSet<Integer>();
+			while (set.size() < Math.min(setSize, numValues)) {
+				set.add(rand.nextInt(numValues));
+			}
+			objectMapping.put(obj, set);
+			sets[obj] = SimilaritySearcher.toSortedArray(set);
+		}
+
+		int prime = Primes.findLeastPrimeNumber(numValues);
+		int[][] hashValues = LSH.constructHashTable(numHashes, numValues, prime, rand);
+		MinHasher hasher = new MinHasher(numHashes, rand);
+
+		System.out.println("objects=" + numObjects + " setSize=" + setSize + " numValues=" + numValues + " numHashes=" + numHashes);
+
+		long reference = Long.MAX_VALUE;
+		long optimized = Long.MAX_VALUE;
+		int[][] expected = null;
+		int[][] actual = null;
+		for (int r = 0; r < repeat; r++) {
+			long start = System.nanoTime();
+			expected = LSH.constructSignatureMatrixByEntry(objectMapping, hashValues);
+			reference = Math.min(reference, System.nanoTime() - start);
+			start = System.nanoTime();
+			actual = LSH.constructSignatureMatrix(objectMapping, hashValues);
+			optimized = Math.min(optimized, System.nanoTime() - start);
+		}
+		System.out.println("table hashes:    per entry " + reference / 1e6 + "ms  per column " + optimized / 1e6 + "ms  speedup "
+				+ (double) reference / optimized + "  identical " + Arrays.deepEquals(expected, actual));
+
+		reference = Long.MAX_VALUE;
+		optimized = Long.MAX_VALUE;
+		boolean identical = true;
+		for (int r = 0; r < repeat; r++) {
+			long start = System.nanoTime();
+			int[][] expectedColumns = new int[numObjects][];
+			for (int obj = 0; obj < numObjects; obj++) {
+				expectedColumns[obj] = hasher.signatureWithModulo(sets[obj]);
+			}
+			reference = Math.min(reference, System.nanoTime() - start);
+			start = System.nanoTime();
+			int[][] actualColumns = new int[numObjects][];
+			for (int obj = 0; obj < numObjects; obj++) {
+				actualColumns[obj] = hasher.signature(sets[obj]);
+			}
+			optimized = Math.min(optimized, System.nanoTime() - start);
+			identical &= Arrays.deepEquals(expectedColumns, actualColumns);
+		}
+		System.out.println("computed hashes: % operator " + reference / 1e6 + "ms  Mersenne reduction " + optimized / 1e6 + "ms  speedup "
+				+ (double) reference / optimized + "  identical " + identical);
+	}
+
+}
@@ -0,0 +1,240 @@
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * SimHash implementation of the similarity searcher, a low memory alternative to minhash and LSH for near duplicates.
+ * 
+ * Every object is reduced to a single 64-bit fingerprint: every element of its set is hashed to 64 bits, and bit b of the
+ * fingerprint is set if bit b is set in the majority of the hashes. Similar sets get fingerprints at a small Hamming
+ * distance. The similarity of two objects is estimated as 1 - hammingDistance / 64.
+ * 
+ * To find all fingerprints within maxHamming bits of each other, the 64 bits are split in maxHamming + 1 blocks.
+ * Two fingerprints that differ in at most maxHamming bits are equal in at least one block, so for every block a table
+ * of the objects sorted on that block is kept. Candidates are the objects in the same run of equal blocks. Per object
+ * this takes 8 bytes for the fingerprint and 4 bytes per table. A block is at most 52 bits (only with maxHamming 0 the
+ * one block is cut to the 52 most significant bits, equal fingerprints are still equal in it), so it is exact as a
+ * double and the tables are sorted with the pair sort of SimilarPairList.
+ */
+public class SimHash extends SimilaritySearcher{
+
+	long[] fingerprints;
+	int maxHamming;
+	int[] blockStart; // first bit of each block, blocks are numbered from the most significant bit
+	int[] blockLength;
+	int[][] tables; // tables[t] holds the object ids sorted on block t of their fingerprint, then on id
+	long seed;
+
+	static final int MAX_BLOCK_LENGTH = 52; // bits of a double mantissa
+
+	/**
+	 * Construct a SimHash similarity searcher.
+	 * @param objectMapping objects and their set representations of which similarity should be searched
+	 * @param maxHamming the maximum Hamming distance between fingerprints of objects that can be found, 0 to 63
+	 * @param rand should be used to generate any random numbers needed
+	 */
+	public SimHash(Map<Integer, Set<Integer>> objectMapping, int maxHamming, Random rand){
+		super(objectMapping);
+		if (maxHamming < 0 || maxHamming >= 64){
+			// with more than 64 blocks some blocks are empty, and the blocks no longer give the pigeonhole guarantee
+			throw new IllegalArgumentException("maxHamming should be between 0 and 63, not " + maxHamming);
+		}
+		this.maxHamming = maxHamming;
+		this.seed = rand.nextLong();
+
+		int numObjects = objectMapping.size();
+		fingerprints = new long[numObjects];
+		for (int obj = 0; obj < numObjects; obj++){
+			fingerprints[obj] = fingerprint(objectMapping.get(obj));
+		}
+
+		int numBlocks = maxHamming + 1;
+		blockStart = new int[numBlocks];
+		blockLength = new int[numBlocks];
+		for (int b = 0; b < numBlocks; b++){
+			blockStart[b] = b * 64 / numBlocks;
+			blockLength[b] = Math.min(MAX_BLOCK_LENGTH, (b + 1) * 64 / numBlocks - blockStart[b]);
+		}
+
+		tables = new int[numBlocks][];
+		for (int t = 0; t < numBlocks; t++){
+			// the block as a negated similarity, so that the pair sort puts the blocks in increasing order
+			long[] ids = new long[numObjects];
+			double[] keys = new double[numObjects];
+			for (int obj = 0; obj < numObjects; obj++){
+				ids[obj] = obj;
+				keys[obj] = -(double) leadingBlock(rotate(fingerprints[obj], t), t);
+			}
+			SimilarPairList.sort(ids, keys, 0, numObjects - 1);
+			tables[t] = new int[numObjects];
+			for (int i = 0; i < numObjects; i++){
+				tables[t][i] = (int) ids[i];
+			}
+		}
+	}
+
+	/**
+	 * The 64-bit fingerprint of a set.
+	 */
+	public long fingerprint(Set<Integer> set){
+		int[] counts = new int[64];
+		for (int value : set){
+			long h = mix(value ^ seed);
+			for (int b = 0; b < 64; b++){
+				counts[b] += (int) ((h >>> b) & 1) * 2 - 1;
+			}
+		}
+		long fingerprint = 0;
+		for (int b = 0; b < 64; b++){
+			if (counts[b] > 0){
+				fingerprint |= 1L << b;
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * The SplitMix64 finalizer, a fast 64-bit hash.
+	 */
+	static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Rotate a fingerprint so that block t becomes the most significant bits.
+	 */
+	private long rotate(long fingerprint, int t){
+		return Long.rotateLeft(fingerprint, blockStart[t]);
+	}
+
+	/**
+	 * The leading block of a rotated fingerprint of table t.
+	 */
+	private long leadingBlock(long rotated, int t){
+		return rotated >>> (64 - blockLength[t]);
+	}
+
+	/**
+	 * Estimated similarity of two fingerprints.
+	 */
+	public static double similarity(long fingerprint1, long fingerprint2){
+		return 1 - Long.bitCount(fingerprint1 ^ fingerprint2) / 64.0;
+	}
+
+	/**
+	 * Returns the pairs with Hamming distance at most maxHamming and similarity above threshold.
+	 */
+	@Override
+	public Set<SimilarPair> getSimilarPairsAboveThreshold(double threshold) {
+		final Set<SimilarPair> result = new HashSet<SimilarPair>();
+		getSimilarPairsAboveThreshold(threshold, new PairSink() {
+			@Override
+			public void accept(int id1, int id2, double similarity) {
+				result.add(new SimilarPair(id1, id2, similarity));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Streams the pairs with Hamming distance at most maxHamming and similarity above threshold to a sink, with id1 < id2.
+	 * A pair is passed from the first table in which it shares the leading block.
+	 */
+	@Override
+	public void getSimilarPairsAboveThreshold(double threshold, PairSink sink) {
+		int candidates = 0;
+		int found = 0;
+		for (int t = 0; t < tables.length; t++){
+			int[] table = tables[t];
+			int runStart = 0;
+			while (runStart < table.length){
+				long block = leadingBlock(rotate(fingerprints[table[runStart]], t), t);
+				int runEnd = runStart + 1;
+				while (runEnd < table.length && leadingBlock(rotate(fingerprints[table[runEnd]], t), t) == block){
+					runEnd++;
+				}
+				for (int i = runStart; i < runEnd; i++){
+					for (int j = i + 1; j < runEnd; j++){
+						int first = Math.min(table[i], table[j]);
+						int second = Math.max(table[i], table[j]);
+						candidates++;
+						if (firstSharedBlock(fingerprints[first], fingerprints[second]) != t){
+							continue;
+						}
+						double sim = similarity(fingerprints[first], fingerprints[second]);
+						if (Long.bitCount(fingerprints[first] ^ fingerprints[second]) <= maxHamming && sim > threshold){
+							sink.accept(first, second, sim);
+							found++;
+						}
+					}
+				}
+				runStart = runEnd;
+			}
+		}
+		System.err.println("Candidates: " + candidates + "   Found: " + found);
+	}
+
+	/**
+	 * The first block in which two fingerprints are equal, or -1.
+	 */
+	private int firstSharedBlock(long fingerprint1, long fingerprint2){
+		long diff = fingerprint1 ^ fingerprint2;
+		for (int t = 0; t < tables.length; t++){
+			if (leadingBlock(rotate(diff, t), t) == 0){
+				return t;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the objects whose fingerprint is within maxHamming bits of the object objID and have similarity above thr.
+	 */
+	@Override
+	public Set<Neighbor> getNeighborsAboveThreshold(int objID, double thr) {
+		return neighbors(fingerprints[objID], thr);
+	}
+
+	/**
+	 * Get the objects whose fingerprint is within maxHamming bits of the fingerprint of a set that is not part of
+	 * the objectMapping.
+	 */
+	@Override
+	public Set<Neighbor> getNeighborsAboveThreshold(Set<Integer> set, double thr) {
+		return neighbors(fingerprint(set), thr);
+	}
+
+	private Set<Neighbor> neighbors(long fingerprint, double thr) {
+		Set<Integer> seen = new HashSet<Integer>();
+		Set<Neighbor> neighbors = new HashSet<Neighbor>();
+		for (int t = 0; t < tables.length; t++){
+			int[] table = tables[t];
+			long block = leadingBlock(rotate(fingerprint, t), t);
+			// binary search the first object of the run with this leading block
+			int lo = 0;
+			int hi = table.length;
+			while (lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if (Long.compareUnsigned(leadingBlock(rotate(fingerprints[table[mid]], t), t), block) < 0){
+					lo = mid + 1;
+				}else{
+					hi = mid;
+				}
+			}
+			for (int i = lo; i < table.length && leadingBlock(rotate(fingerprints[table[i]], t), t) == block; i++){
+				int other = table[i];
+				if (seen.add(other) && Long.bitCount(fingerprint ^ fingerprints[other]) <= maxHamming){
+					double sim = similarity(fingerprint, fingerprints[other]);
+					if (sim > thr){
+						neighbors.add(new Neighbor(other, sim));
+					}
+				}
+			}
+		}
+		return neighbors;
+	}
+
+}
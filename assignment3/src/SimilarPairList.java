@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Compact list of similar pairs. The pair ids are packed in one long per pair and the similarities are stored as
+ * doubles, both in growable primitive arrays. This takes 16 bytes per pair instead of a SimilarPair object and a HashSet
+ * entry.
+ * 
+ * The list is a PairSink, so it can be filled directly by SimilaritySearcher.getSimilarPairsAboveThreshold(double, PairSink).
+ */
+public class SimilarPairList implements PairSink {
+
+	long[] pairs;
+	double[] similarities;
+	int size;
+
+	public SimilarPairList(){
+		this(16);
+	}
+
+	public SimilarPairList(int capacity){
+		capacity = Math.max(capacity, 16);
+		pairs = new long[capacity];
+		similarities = new double[capacity];
+	}
+
+	@Override
+	public void accept(int id1, int id2, double similarity){
+		add(id1, id2, similarity);
+	}
+
+	/**
+	 * Append a pair.
+	 */
+	public void add(int id1, int id2, double similarity){
+		if (size == pairs.length){
+			int capacity = pairs.length + (pairs.length >> 1);
+			pairs = Arrays.copyOf(pairs, capacity);
+			similarities = Arrays.copyOf(similarities, capacity);
+		}
+		pairs[size] = pack(id1, id2);
+		similarities[size] = similarity;
+		size++;
+	}
+
+	static long pack(int id1, int id2){
+		return ((long) id1 << 32) | (id2 & 0xffffffffL);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int getId1(int i){
+		return (int) (pairs[i] >>> 32);
+	}
+
+	public int getId2(int i){
+		return (int) pairs[i];
+	}
+
+	public double getSimilarity(int i){
+		return similarities[i];
+	}
+
+	/**
+	 * Returns pair i as a SimilarPair object.
+	 */
+	public SimilarPair get(int i){
+		return new SimilarPair(getId1(i), getId2(i), similarities[i]);
+	}
+
+	/**
+	 * Sorts the pairs in place on decreasing similarity, ties are ordered on increasing (id1, id2).
+	 */
+	public void sortBySimilarity(){
+		sort(pairs, similarities, 0, size - 1);
+	}
+
+	/**
+	 * Sorts the packed pairs lo to hi (inclusive) and their similarities in place on decreasing similarity, ties are
+	 * ordered on increasing packed pair. This is the one primitive pair sort, also used by ExternalPairSorter and
+	 * SimHash: a quicksort with a median of three pivot and an insertion sort for short ranges.
+	 */
+	static void sort(long[] pairs, double[] similarities, int lo, int hi){
+		while (hi - lo > 16){
+			// median of three as pivot, moved to hi
+			int mid = (lo + hi) >>> 1;
+			if (before(pairs, similarities, mid, lo)) swap(pairs, similarities, mid, lo);
+			if (before(pairs, similarities, hi, lo)) swap(pairs, similarities, hi, lo);
+			if (before(pairs, similarities, mid, hi)) swap(pairs, similarities, mid, hi);
+
+			int store = lo;
+			for (int i = lo; i < hi; i++){
+				if (before(pairs, similarities, i, hi)){
+					swap(pairs, similarities, i, store++);
+				}
+			}
+			swap(pairs, similarities, store, hi);
+
+			// recurse into the smaller part to bound the stack depth
+			if (store - lo < hi - store){
+				sort(pairs, similarities, lo, store - 1);
+				lo = store + 1;
+			}else{
+				sort(pairs, similarities, store + 1, hi);
+				hi = store - 1;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++){
+			for (int j = i; j > lo && before(pairs, similarities, j, j - 1); j--){
+				swap(pairs, similarities, j, j - 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if pair i should come before pair j.
+	 */
+	private static boolean before(long[] pairs, double[] similarities, int i, int j){
+		if (similarities[i] != similarities[j]){
+			return similarities[i] > similarities[j];
+		}
+		return pairs[i] < pairs[j];
+	}
+
+	private static void swap(long[] pairs, double[] similarities, int i, int j){
+		long p = pairs[i];
+		pairs[i] = pairs[j];
+		pairs[j] = p;
+		double s = similarities[i];
+		similarities[i] = similarities[j];
+		similarities[j] = s;
+	}
+
+}
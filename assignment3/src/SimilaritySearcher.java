@@ -1,3 +1,5 @@
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Map;
@@ -30,6 +32,43 @@ public abstract class SimilaritySearcher {
 	 * @return the pairs with similarity above the threshold
 	 */
 	abstract public Set<SimilarPair> getSimilarPairsAboveThreshold(double threshold);
+
+	/**
+	 * Streams the pairs of the objectMapping that have a similarity coefficient exceeding threshold to a sink, every pair is
+	 * passed once. These are the same pairs as those returned by getSimilarPairsAboveThreshold(double).
+	 * @param threshold the similarity threshold
+	 * @param sink receives the pairs with similarity above the threshold
+	 */
+	abstract public void getSimilarPairsAboveThreshold(double threshold, PairSink sink);
+
+	/**
+	 * Anytime variant of getSimilarPairsAboveThreshold(double, PairSink): the search stops when the budget is exhausted
+	 * (at its deadline, or when it is cancelled from another thread), and the pairs passed to the sink until then are
+	 * the result. The budget reports how much of the candidate space was covered.
+	 * Searchers that support this verify the candidates that are most likely similar first. The default implementation
+	 * does not: unless the budget is exhausted before it starts, it runs the complete search.
+	 * @param threshold the similarity threshold
+	 * @param sink receives the pairs with similarity above the threshold
+	 * @param budget the time budget, also receives the progress
+	 */
+	public void getSimilarPairsAboveThreshold(double threshold, PairSink sink, SearchBudget budget) {
+		if (budget.isExhausted()) {
+			return;
+		}
+		getSimilarPairsAboveThreshold(threshold, sink);
+		budget.finish();
+	}
+
+	/**
+	 * Returns the pairs with similarity above the threshold in a compact SimilarPairList.
+	 * @param threshold the similarity threshold
+	 * @return the pairs with similarity above the threshold
+	 */
+	public SimilarPairList getSimilarPairListAboveThreshold(double threshold) {
+		SimilarPairList pairs = new SimilarPairList();
+		getSimilarPairsAboveThreshold(threshold, pairs);
+		return pairs;
+	}
 	
 	/**
 	 * Get the objects that have a similarity above threshold thr to the object identified by the given object id objID
@@ -39,6 +78,57 @@ public abstract class SimilaritySearcher {
 	 */
 	abstract public Set<Neighbor> getNeighborsAboveThreshold(int objId, double threshold);
 
+	/**
+	 * Get the objects that have a similarity above threshold thr to a set that is not part of the objectMapping,
+	 * e.g. a query document. The default implementation compares the set to every object.
+	 * @param set the set representation of the query
+	 * @param thr the similarity threshold
+	 * @return the objects with similarity above threshold
+	 */
+	public Set<Neighbor> getNeighborsAboveThreshold(Set<Integer> set, double thr) {
+		Set<Neighbor> neighbors = new HashSet<Neighbor>();
+		for (Map.Entry<Integer, Set<Integer>> entry : objectMapping.entrySet()){
+			double sim = jaccardSimilarity(set, entry.getValue());
+			if (sim > thr){
+				neighbors.add(new Neighbor(entry.getKey(), sim));
+			}
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Similarity join of a collection of query sets (e.g. a batch of new documents) against the objectMapping. Only
+	 * pairs of a query and an object are passed, not pairs within the queries or within the objectMapping, so the cost
+	 * grows with the number of queries. The query sets should use the values of the objectMapping, values that no
+	 * object has still count in the union of the Jaccard similarity.
+	 * The default implementation searches the neighbors of every query with getNeighborsAboveThreshold(Set, double).
+	 * @param queries the query sets, keyed on query id
+	 * @param thr the similarity threshold
+	 * @param sink receives (query id, object id, similarity) for every pair with similarity above thr
+	 */
+	public void join(Map<Integer, Set<Integer>> queries, double thr, PairSink sink) {
+		for (Map.Entry<Integer, Set<Integer>> query : queries.entrySet()){
+			for (Neighbor neighbor : getNeighborsAboveThreshold(query.getValue(), thr)){
+				sink.accept(query.getKey(), neighbor.getUserID(), neighbor.getSimilarity());
+			}
+		}
+	}
+
+	/**
+	 * Get the neighbors of many objects at once. The result is the same as calling getNeighborsAboveThreshold(objId, thr)
+	 * for every object, but implementations can share work between the objects.
+	 * @param objIds the objects of which we want to search neighbors
+	 * @param thr the similarity threshold
+	 * @return mapping of every object in objIds to its neighbors
+	 */
+	public Map<Integer, Set<Neighbor>> getNeighborsAboveThreshold(int[] objIds, double thr) {
+		Map<Integer, Set<Neighbor>> neighbors = new HashMap<Integer, Set<Neighbor>>();
+		for (int objId : objIds){
+			neighbors.put(objId, getNeighborsAboveThreshold(objId, thr));
+		}
+		return neighbors;
+	}
+
 	/**
 	 * Jaccard similarity between two sets.
 	 * @param set1
@@ -58,4 +148,45 @@ public abstract class SimilaritySearcher {
 		return (double) intersection.size() / union.size();
 	}
 
+	/**
+	 * Jaccard similarity between two sets given as sorted arrays without duplicates.
+	 * @param set1
+	 * @param set2
+	 * @return the similarity
+	 */
+	public static double jaccardSimilarity(int[] set1, int[] set2) {
+		int i = 0;
+		int j = 0;
+		int intersection = 0;
+		while (i < set1.length && j < set2.length){
+			if (set1[i] < set2[j]){
+				i++;
+			}else if (set1[i] > set2[j]){
+				j++;
+			}else{
+				intersection++;
+				i++;
+				j++;
+			}
+		}
+		int union = set1.length + set2.length - intersection;
+		if (union == 0){
+			return 0;
+		}
+		return (double) intersection / union;
+	}
+
+	/**
+	 * Sorted array representation of a set, to be used with jaccardSimilarity(int[], int[]).
+	 */
+	public static int[] toSortedArray(Set<Integer> set) {
+		int[] array = new int[set.size()];
+		int i = 0;
+		for (int value : set){
+			array[i++] = value;
+		}
+		Arrays.sort(array);
+		return array;
+	}
+
 }
@@ -1,8 +1,10 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,6 +19,13 @@ public class SimpleShingler {
 	
 	Map<String, Integer> shingleMap = new HashMap<String, Integer>(); // maps the k-shingles to integers
 	int k;
+	// stop shingles, only used after setStopShingles
+	FrequencySketch documentFrequencies;
+	int maxDocumentFrequency;
+	Set<String> stopShingles = new HashSet<String>();
+	long numStopElements; // stop shingles left out of the shingle sets
+	long numElements; // shingles in the shingle sets
+	boolean hashed; // the shingles are hashed to their integers instead of numbered in the shingleMap
 	
 	/**
 	 * Construct a shingler.
@@ -32,6 +41,9 @@ public class SimpleShingler {
 	 * @return integer that the shingle maps to
 	 */
 	private int hashShingle(String shingle){
+		if (hashed){
+			return hashNumber(shingle);
+		}
 		if (shingleMap.containsKey(shingle)){
 			return shingleMap.get(shingle);
 		}else{
@@ -40,14 +52,75 @@ public class SimpleShingler {
 		}
 	}
 	
+	/**
+	 * The integer of a shingle in hashed mode: 31 bits of its 64-bit hash, so it is a valid value for MinHasher.
+	 */
+	static int hashNumber(String shingle){
+		return (int) (FrequencySketch.hash(shingle) >>> 33);
+	}
+
+	/**
+	 * Hash the shingles straight to their integers instead of numbering them in the shingle map, so no String is kept
+	 * per distinct shingle (for streaming, see DocumentHandler). Two different shingles only share an integer if their
+	 * hashes collide, which hardly changes the Jaccard similarities. getNumShingles() is then 0, the integers are not
+	 * dense. Only applies to documents shingled afterwards.
+	 */
+	public void setHashed(){
+		hashed = true;
+	}
+
+	/**
+	 * Leave shingles that occur in more than maxDocumentFrequency documents out of the shingle sets (e.g. boilerplate
+	 * and whitespace runs that are in almost every document). Only applies to documents shingled afterwards.
+	 * @param documentFrequencies the number of documents per shingle, as counted by DocumentHandler.countDocumentFrequencies
+	 * @param maxDocumentFrequency shingles with a higher (estimated) document frequency are dropped
+	 */
+	public void setStopShingles(FrequencySketch documentFrequencies, int maxDocumentFrequency){
+		this.documentFrequencies = documentFrequencies;
+		this.maxDocumentFrequency = maxDocumentFrequency;
+	}
+
+	/**
+	 * Returns true if the shingle is a stop shingle. Numbered shingles passed the test already, the sketch is only
+	 * queried for new shingles (for every shingle in hashed mode).
+	 */
+	private boolean isStopShingle(String shingle){
+		if (documentFrequencies == null || (!hashed && shingleMap.containsKey(shingle))){
+			return false;
+		}
+		if (stopShingles.contains(shingle)){
+			return true;
+		}
+		if (documentFrequencies.estimate(shingle) > maxDocumentFrequency){
+			stopShingles.add(shingle);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if a shingle that is not in the shingle map is a stop shingle, without remembering it.
+	 */
+	private boolean wouldBeStopShingle(String shingle){
+		return documentFrequencies != null
+				&& (stopShingles.contains(shingle) || documentFrequencies.estimate(shingle) > maxDocumentFrequency);
+	}
+
 	/**
 	 * Get the shingle set representation of a document.
 	 * @param fn filename of the document that should be shingled
 	 * @return set of integers being the hash maps of the shingles
 	 */
 	public Set<Integer> shingle(String fn){
-		Set<Integer> shingled = new HashSet<Integer>();
+		return shingleText(readFile(fn), true);
+	}
 
+	/**
+	 * Reads a document with its lines joined, a space after every line.
+	 * @param fn filename of the document
+	 * @return the complete document
+	 */
+	static String readFile(String fn){
 		String completeDocument = "";
 		BufferedReader br;
 		try {
@@ -60,13 +133,133 @@ public class SimpleShingler {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		
+		return completeDocument;
+	}
+
+	/**
+	 * Get the shingle set representation of a document that was read from a corpus file instead of from its own file.
+	 * @param text the complete text of the document
+	 * @return set of integers being the hash maps of the shingles
+	 */
+	public Set<Integer> shingleRecord(String text){
+		return hashShingles(shingleStrings(joinLines(text)));
+	}
+
+	/**
+	 * Get the shingle set representation of a piece of text that is not part of the processed documents (e.g. a query).
+	 * Shingles that were never seen before can not be shared with any processed document, but they do count in the
+	 * union of the Jaccard similarity: they get the numbers from getNumShingles() on, in the order of this text, like
+	 * DocumentHandler.shingleCollection would number them. Stop shingles are left out.
+	 * The shingle map is not modified, so texts can be shingled concurrently.
+	 * @param text the text, line breaks are treated like in shingle(String)
+	 * @return set of integers being the hash maps of the shingles
+	 */
+	public Set<Integer> shingleQuery(String text){
+		return shingleText(joinLines(text), false);
+	}
+
+	/**
+	 * Joins the lines of a text with a space after every line, the way shingle(String) reads a file.
+	 */
+	static String joinLines(String text){
+		StringBuilder sb = new StringBuilder(text.length() + 1);
+		int start = 0;
+		int n = text.length();
+		while (start < n){
+			int end = start;
+			while (end < n && text.charAt(end) != '\n' && text.charAt(end) != '\r'){
+				end++;
+			}
+			sb.append(text, start, end).append(' ');
+			if (end < n - 1 && text.charAt(end) == '\r' && text.charAt(end + 1) == '\n'){
+				end++;
+			}
+			start = end + 1;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Count every distinct shingle of a document once in the sketch, see DocumentHandler.countDocumentFrequencies.
+	 * Does not touch the shingle map.
+	 * @param completeDocument the document with its lines joined
+	 * @param sketch the sketch to count in
+	 */
+	public void countShingles(String completeDocument, FrequencySketch sketch){
+		for (String shingle : shingleStrings(completeDocument)){
+			sketch.add(shingle);
+		}
+	}
+
+	/**
+	 * The distinct shingles of a document in order of first occurrence. Does not touch the shingle map, so documents can
+	 * be split into shingles in parallel and numbered afterwards with hashShingles.
+	 * Subclasses can return other parts of the document (see TokenShingler), as long as hashShingles turns them into
+	 * the shingle set.
+	 * @param completeDocument the document with its lines joined
+	 * @return the distinct shingles
+	 */
+	public Collection<String> shingleStrings(String completeDocument){
+		Set<String> shingles = new LinkedHashSet<String>();
+		for (int i = 0; i < completeDocument.length() - k; i++){
+			shingles.add(completeDocument.substring(i, i + k + 1));
+		}
+		return shingles;
+	}
+
+	/**
+	 * Map shingles to their integers, numbering new shingles in the given order.
+	 * @param shingles shingles as returned by shingleStrings
+	 * @return set of integers being the hash maps of the shingles
+	 */
+	public Set<Integer> hashShingles(Collection<String> shingles){
+		Set<Integer> shingled = new HashSet<Integer>();
+		for (String shingle : shingles){
+			if (isStopShingle(shingle)){
+				numStopElements++;
+			}else{
+				shingled.add(hashShingle(shingle));
+			}
+		}
+		numElements += shingled.size();
+		return shingled;
+	}
+
+	private Set<Integer> shingleText(String completeDocument, boolean addNew){
+		Set<Integer> shingled = new HashSet<Integer>();
+		Set<String> stopped = null; // the distinct stop shingles of this document
+		Map<String, Integer> unseen = null; // the numbers of the unseen shingles of a query
 		for (int i = 0; i < completeDocument.length() - k; i++){
-				String toHash = Character.toString(completeDocument.charAt(i));
-				for (int j = 0; j < k; j++){
-					toHash += Character.toString(completeDocument.charAt(i+j+1));
+				// the shingle is the character at i followed by the k next characters
+				String toHash = completeDocument.substring(i, i + k + 1);
+				if (addNew && isStopShingle(toHash)){
+					if (stopped == null){
+						stopped = new HashSet<String>();
+					}
+					stopped.add(toHash);
+				}else if (addNew){
+					shingled.add(hashShingle(toHash));
+				}else if (shingleMap.containsKey(toHash)){
+					shingled.add(shingleMap.get(toHash));
+				}else if (!wouldBeStopShingle(toHash)){
+					if (hashed){
+						shingled.add(hashNumber(toHash));
+						continue;
+					}
+					if (unseen == null){
+						unseen = new HashMap<String, Integer>();
+					}
+					Integer number = unseen.get(toHash);
+					if (number == null){
+						number = shingleMap.size() + unseen.size();
+						unseen.put(toHash, number);
+					}
+					shingled.add(number);
 				}
-				shingled.add(hashShingle(toHash));
+		}
+		if (addNew){
+			numElements += shingled.size();
+			numStopElements += stopped == null ? 0 : stopped.size();
 		}
 		return shingled;
 	}
@@ -78,4 +271,26 @@ public class SimpleShingler {
 	public int getNumShingles() {
 		return shingleMap.size();
 	}
+
+	/**
+	 * Get the number of distinct stop shingles that were left out of the shingle sets.
+	 */
+	public int getNumStopShingles() {
+		return stopShingles.size();
+	}
+
+	/**
+	 * Get the number of shingle set elements that were left out because they are stop shingles (a stop shingle counts
+	 * once for every document it occurs in).
+	 */
+	public long getNumStopElements() {
+		return numStopElements;
+	}
+
+	/**
+	 * Get the number of elements of all shingle sets.
+	 */
+	public long getNumElements() {
+		return numElements;
+	}
 }
@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+/**
+ * In-memory store of sorted sets, one per object, as runs of one int array: the set of obj is elements[offsets[obj]]
+ * to elements[offsets[obj+1]], sorted and without duplicates. Takes 4 bytes per element instead of a boxed Integer in a
+ * HashSet, and the Jaccard similarity is a merge of two runs, without copying them.
+ */
+public class SortedArraySets implements ObjectSets {
+
+	private int[] elements = new int[1 << 12];
+	private int numElements;
+	private int[] offsets = new int[1024]; // offsets[obj] is the index of the first element of obj
+	private int size;
+
+	/**
+	 * Append the set of the next object.
+	 * @param values the elements of the set, in any order and possibly with duplicates
+	 * @param from index of the first element in values
+	 * @param to index after the last element in values
+	 * @return the id of the object
+	 */
+	public int append(int[] values, int from, int to) {
+		if (size + 1 == offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		if (numElements + (to - from) > elements.length) {
+			elements = Arrays.copyOf(elements, Math.max(numElements + (to - from), elements.length * 2));
+		}
+		int start = numElements;
+		System.arraycopy(values, from, elements, start, to - from);
+		Arrays.sort(elements, start, start + (to - from));
+		// drop the duplicates of the run
+		int end = start;
+		for (int i = start; i < start + (to - from); i++) {
+			if (i == start || elements[i] != elements[end - 1]) {
+				elements[end++] = elements[i];
+			}
+		}
+		numElements = end;
+		offsets[size + 1] = numElements;
+		return size++;
+	}
+
+	/**
+	 * Release the unused capacity, once all sets are appended.
+	 */
+	public void trim() {
+		elements = Arrays.copyOf(elements, numElements);
+		offsets = Arrays.copyOf(offsets, size + 1);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of elements in the set of obj.
+	 */
+	public int setSize(int obj) {
+		return offsets[obj + 1] - offsets[obj];
+	}
+
+	/**
+	 * Total number of elements in all sets.
+	 */
+	public long getNumElements() {
+		return numElements;
+	}
+
+	/**
+	 * Number of bytes taken by the arrays of the store.
+	 */
+	public long getNumBytes() {
+		return 4L * elements.length + 4L * offsets.length;
+	}
+
+	/**
+	 * Returns the number of sets, elements and bytes of the store.
+	 */
+	@Override
+	public String toString() {
+		return size + " sets, " + numElements + " elements in " + getNumBytes() + " bytes";
+	}
+
+	@Override
+	public int[] get(int obj) {
+		return Arrays.copyOfRange(elements, offsets[obj], offsets[obj + 1]);
+	}
+
+	/**
+	 * Jaccard similarity as a merge of the two runs.
+	 */
+	@Override
+	public double jaccard(int obj1, int obj2) {
+		int i = offsets[obj1];
+		int end1 = offsets[obj1 + 1];
+		int j = offsets[obj2];
+		int end2 = offsets[obj2 + 1];
+		int intersection = 0;
+		while (i < end1 && j < end2) {
+			if (elements[i] < elements[j]) {
+				i++;
+			}else if (elements[i] > elements[j]) {
+				j++;
+			}else{
+				intersection++;
+				i++;
+				j++;
+			}
+		}
+		int union = setSize(obj1) + setSize(obj2) - intersection;
+		if (union == 0) {
+			return 0;
+		}
+		return (double) intersection / union;
+	}
+
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The SweepRunner tries many LSH settings on the same data. The data is read and the signatures are computed once, for
+ * the largest number of hashes needed. Every band setting then uses a prefix of these signature rows.
+ * Example commands:
+ * 				java SweepRunner -mode movies -trainingFile ../r1.train -testFile ../r1.test -bands 10,20,40 -rows 2,5 -thresholds 0.1,0.3
+ * 				java SweepRunner -mode documents -dir articles -maxFiles 300 -shingleLength 5 -bands 10,20,40 -rows 2,5 -thresholds 0.5,0.8
+ * The other arguments are those of the MovieRunner or DocumentRunner (depending on the mode).
+ *
+ * For every number of bands b and rows per band r, the LSH index uses the first b * r signature rows, and is searched at
+ * every threshold. A line is printed per configuration, with the time to build the bands and find the pairs, the number
+ * of candidate pairs, the number of pairs found, their recall against the exact (brute force) pairs and, for movies,
+ * the RMSE of the test set predictions (test ratings without a prediction are left out).
+ */
+public class SweepRunner {
+
+	public static void main(String[] args) throws IOException {
+		String mode = "movies";
+		int[] bands = {10, 20};
+		int[] rowsPerBand = {5};
+		double[] thresholds = {0.5};
+		int seed = -1;
+
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String arg = args[i];
+			if (arg.equals("-mode")) {
+				mode = args[i+1];
+			}else if (arg.equals("-bands")) {
+				bands = parseInts(args[i+1]);
+			}else if (arg.equals("-rows")) {
+				rowsPerBand = parseInts(args[i+1]);
+			}else if (arg.equals("-thresholds")) {
+				String[] parts = args[i+1].split(",");
+				thresholds = new double[parts.length];
+				for (int t = 0; t < parts.length; t++) {
+					thresholds[t] = Double.parseDouble(parts[t].trim());
+				}
+			}else if (arg.equals("-seed")) {
+				seed = Integer.parseInt(args[i+1]);
+			}
+			i += 2;
+		}
+		// ascending, so the pairs of a lower threshold can be filtered for the higher ones
+		Arrays.sort(thresholds);
+
+		// the exact searcher also reads the data, the runners skip the sweep arguments
+		String[] runnerArgs = Arrays.copyOf(args, args.length + 2);
+		runnerArgs[args.length] = "-method";
+		runnerArgs[args.length + 1] = "bf";
+		SimilaritySearcher exact;
+		int numValues;
+		if (mode.equals("movies")) {
+			exact = MovieRunner.constructSimilaritySearcher(runnerArgs);
+			numValues = MovieRunner.ratings.getNumValues();
+		}else if (mode.equals("documents")) {
+			exact = DocumentRunner.constructSimilaritySearcher(runnerArgs);
+			numValues = DocumentRunner.documents.getNumShingles();
+		}else{
+			throw new Error("The mode should either be movies or documents");
+		}
+		int numObjects = exact.objectMapping.size();
+		int[] objects = new int[numObjects];
+		for (int obj = 0; obj < numObjects; obj++) {
+			objects[obj] = obj;
+		}
+
+		long startTime = System.currentTimeMillis();
+		long[][] truth = new long[thresholds.length][];
+		for (int t = 0; t < thresholds.length; t++) {
+			truth[t] = ScaleBenchmark.neighborKeys(exact.getNeighborsAboveThreshold(objects, thresholds[t]));
+		}
+		System.out.println("Exact pairs, took " + (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+
+		int maxHashes = 0;
+		for (int b : bands) {
+			for (int r : rowsPerBand) {
+				maxHashes = Math.max(maxHashes, b * r);
+			}
+		}
+		startTime = System.currentTimeMillis();
+		LSH signatures = new LSH(exact.objectMapping, maxHashes, 1, numValues, new Random(seed),
+				Runtime.getRuntime().availableProcessors(), mode.equals("movies") ? MovieRunner.ratings.getSets() : null);
+		System.out.println("Signatures (" + maxHashes + " hashes), took " + (System.currentTimeMillis() - startTime)/1000.0 + "seconds.");
+
+		System.out.println("bands\trows\thashes\tthreshold\tseconds\tcandidates\tpairs\trecall\trmse");
+		for (int b : bands) {
+			for (int r : rowsPerBand) {
+				startTime = System.currentTimeMillis();
+				LSH lsh = new LSH(signatures, b * r, b);
+				long buildTime = System.currentTimeMillis() - startTime;
+				long candidates = lsh.countCandidatePairs();
+				for (int t = 0; t < thresholds.length; t++) {
+					startTime = System.currentTimeMillis();
+					long[] found = ScaleBenchmark.pairKeys(lsh.getSimilarPairListAboveThreshold(thresholds[t]));
+					double seconds = (buildTime + System.currentTimeMillis() - startTime) / 1000.0;
+
+					double recall = truth[t].length == 0 ? 1.0 : (double) ScaleBenchmark.intersection(found, truth[t]) / truth[t].length;
+					String rmse = mode.equals("movies") ? String.format("%.4f", rmse(lsh, thresholds[t])) : "-";
+					System.out.println(b + "\t" + r + "\t" + b * r + "\t" + thresholds[t] + "\t" + seconds + "\t" + candidates + "\t"
+							+ found.length + "\t" + String.format("%.4f", recall) + "\t" + rmse);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The RMSE of the MovieRunner predictions for the test set, with the given searcher and threshold.
+	 * Test ratings that can not be predicted (no neighbor rated the movie) are left out.
+	 */
+	static double rmse(SimilaritySearcher searcher, double threshold) throws IOException {
+		MovieRunner.searcher = searcher;
+		MovieRunner.threshold = threshold;
+		RatingColumns test = RatingCache.load(MovieRunner.testFile);
+		double summedErrorSq = 0;
+		int predicted = 0;
+		for (int row = 0; row < test.size(); row++) {
+			double estimate = MovieRunner.getPrediction(test.getUserID(row), test.getMovieID(row));
+			if (!Double.isNaN(estimate)) {
+				summedErrorSq += Math.pow(test.getRating(row) - estimate, 2);
+				predicted++;
+			}
+		}
+		return Math.sqrt(summedErrorSq / predicted);
+	}
+
+	private static int[] parseInts(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,327 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A TokenShingler constructs shingle sets of w consecutive words (tokens) instead of characters.
+ *
+ * A token is a maximal run of letters and digits, lowercased; the text is scanned character by character, without
+ * regular expressions. Every distinct token is interned once in a vocabulary of primitive arrays and gets a token ID.
+ * A w-shingle of token IDs is hashed into a 64-bit key, and every key gets a shingle number (its integer in the shingle
+ * sets) in a LongIntMap, so no String is kept per shingle. Two different shingles only share a number if their 64-bit
+ * keys collide, which is negligible for any corpus size.
+ */
+public class TokenShingler extends SimpleShingler {
+
+	static final int STOP = -1; // shingle number of stop shingles
+
+	final int w;
+	final Vocabulary vocabulary = new Vocabulary();
+	final LongIntMap shingleNumbers = new LongIntMap();
+	int numShingles;
+	int numStopShingles;
+
+	/**
+	 * Construct a shingler.
+	 * @param w number of tokens in one shingle
+	 */
+	public TokenShingler(int w) {
+		super(w);
+		this.w = w;
+	}
+
+	/**
+	 * Get the shingle set representation of a document.
+	 * @param fn filename of the document that should be shingled
+	 * @return set of integers being the numbers of the shingles
+	 */
+	@Override
+	public Set<Integer> shingle(String fn) {
+		return shingleTokens(tokenIDs(readFile(fn), true), true);
+	}
+
+	@Override
+	public Set<Integer> shingleRecord(String text) {
+		return shingleTokens(tokenIDs(text, true), true);
+	}
+
+	/**
+	 * Get the shingle set of a text that is not part of the processed documents. Unseen tokens and shingles get
+	 * numbers past the known ones, so they count in the union of the Jaccard similarity (see SimpleShingler.shingleQuery).
+	 * Neither the vocabulary nor the shingle numbers are modified.
+	 */
+	@Override
+	public Set<Integer> shingleQuery(String text) {
+		return shingleTokens(tokenIDs(text, false), false);
+	}
+
+	/**
+	 * The tokens of a document, in order. Does not touch the vocabulary, so documents can be split into tokens in
+	 * parallel; hashShingles then interns the tokens and forms the shingles.
+	 */
+	@Override
+	public Collection<String> shingleStrings(String completeDocument) {
+		List<String> tokens = new ArrayList<String>();
+		int n = completeDocument.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && !Character.isLetterOrDigit(completeDocument.charAt(i))) {
+				i++;
+			}
+			StringBuilder token = new StringBuilder();
+			while (i < n && Character.isLetterOrDigit(completeDocument.charAt(i))) {
+				token.append(Character.toLowerCase(completeDocument.charAt(i++)));
+			}
+			if (token.length() > 0) {
+				tokens.add(token.toString());
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Intern the tokens returned by shingleStrings and map their w-shingles to their numbers.
+	 */
+	@Override
+	public Set<Integer> hashShingles(Collection<String> tokens) {
+		int[] ids = new int[tokens.size()];
+		int n = 0;
+		for (String token : tokens) {
+			char[] chars = token.toCharArray();
+			ids[n++] = vocabulary.intern(chars, chars.length, true);
+		}
+		return shingleTokens(ids, true);
+	}
+
+	/**
+	 * Count every distinct shingle of a document once in the sketch, by its 64-bit key.
+	 * The tokens are interned, the shingles are not numbered.
+	 */
+	@Override
+	public void countShingles(String completeDocument, FrequencySketch sketch) {
+		int[] ids = tokenIDs(completeDocument, true);
+		long[] keys = new long[Math.max(0, ids.length - w + 1)];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = key(ids, i);
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i < keys.length; i++) {
+			if (i == 0 || keys[i] != keys[i - 1]) {
+				sketch.add(keys[i]);
+			}
+		}
+	}
+
+	/**
+	 * The token IDs of a text. Tokens are scanned in place and only copied when they are new to the vocabulary.
+	 * @param addNew if false, unknown tokens are not interned, they get IDs from the vocabulary size on instead
+	 */
+	int[] tokenIDs(String text, boolean addNew) {
+		Map<String, Integer> unseen = null; // the IDs of the unknown tokens if addNew is false
+		int[] ids = new int[16];
+		int numTokens = 0;
+		char[] buffer = new char[32];
+		int n = text.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+				i++;
+			}
+			int length = 0;
+			while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, length * 2);
+				}
+				buffer[length++] = Character.toLowerCase(text.charAt(i++));
+			}
+			if (length > 0) {
+				if (numTokens == ids.length) {
+					ids = Arrays.copyOf(ids, numTokens * 2);
+				}
+				int id = vocabulary.intern(buffer, length, addNew);
+				if (id < 0) {
+					if (unseen == null) {
+						unseen = new HashMap<String, Integer>();
+					}
+					String token = new String(buffer, 0, length);
+					Integer unseenID = unseen.get(token);
+					if (unseenID == null) {
+						unseenID = vocabulary.size + unseen.size();
+						unseen.put(token, unseenID);
+					}
+					id = unseenID;
+				}
+				ids[numTokens++] = id;
+			}
+		}
+		return Arrays.copyOf(ids, numTokens);
+	}
+
+	/**
+	 * The 64-bit key of the w-shingle that starts at token i.
+	 */
+	private long key(int[] ids, int i) {
+		long key = w;
+		for (int j = i; j < i + w; j++) {
+			key = SimHash.mix(key * 0x9E3779B97F4A7C15L + ids[j]);
+		}
+		return key;
+	}
+
+	/**
+	 * Map the w-shingles of a sequence of token IDs to their numbers.
+	 * @param addNew if false, unknown shingles are not numbered in shingleNumbers, they get numbers from numShingles on
+	 * instead (or are left out if they are stop shingles)
+	 */
+	private Set<Integer> shingleTokens(int[] ids, boolean addNew) {
+		Set<Integer> shingled = new HashSet<Integer>();
+		LongIntMap stopped = null; // the distinct stop shingles of this document
+		LongIntMap unseen = null; // the numbers of the unknown shingles if addNew is false
+		for (int i = 0; i + w <= ids.length; i++) {
+			long key = key(ids, i);
+			int number = shingleNumbers.get(key, -2);
+			if (number == -2 && !addNew) {
+				if (documentFrequencies != null && documentFrequencies.estimate(key) > maxDocumentFrequency) {
+					continue;
+				}
+				if (unseen == null) {
+					unseen = new LongIntMap();
+				}
+				number = unseen.putIfAbsent(key, numShingles + unseen.size());
+			}else if (number == -2) {
+				if (documentFrequencies != null && documentFrequencies.estimate(key) > maxDocumentFrequency) {
+					number = STOP;
+					numStopShingles++;
+				}else{
+					number = numShingles++;
+				}
+				shingleNumbers.put(key, number);
+			}
+			if (number >= 0) {
+				shingled.add(number);
+			}else if (number == STOP && addNew) {
+				if (stopped == null) {
+					stopped = new LongIntMap();
+				}
+				stopped.put(key, STOP);
+			}
+		}
+		if (addNew) {
+			numElements += shingled.size();
+			numStopElements += stopped == null ? 0 : stopped.size();
+		}
+		return shingled;
+	}
+
+	@Override
+	public int getNumShingles() {
+		return numShingles;
+	}
+
+	@Override
+	public int getNumStopShingles() {
+		return numStopShingles;
+	}
+
+	/**
+	 * Get the number of distinct tokens in the vocabulary.
+	 */
+	public int getNumTokens() {
+		return vocabulary.size;
+	}
+
+	/**
+	 * Number of bytes taken by the vocabulary and the shingle numbers.
+	 */
+	public long getNumBytes() {
+		return vocabulary.getNumBytes() + shingleNumbers.getNumBytes();
+	}
+
+	/**
+	 * Interned tokens: the characters of all tokens in one array, and an open addressing table of token IDs on the
+	 * hash of their characters.
+	 */
+	static class Vocabulary {
+		char[] chars = new char[1 << 12];
+		int numChars;
+		int[] starts = new int[1025]; // the characters of token t are starts[t] to starts[t+1]
+		int[] hashes = new int[1024];
+		int size;
+		int[] table = new int[2048]; // token ID + 1, 0 is an empty slot
+
+		/**
+		 * Returns the ID of the token in the first length characters of buffer, interning it if it is new and addNew
+		 * is set (else -1).
+		 */
+		int intern(char[] buffer, int length, boolean addNew) {
+			int hash = 0;
+			for (int c = 0; c < length; c++) {
+				hash = 31 * hash + buffer[c];
+			}
+			int mask = table.length - 1;
+			int i = (int) SimHash.mix(hash) & mask;
+			while (table[i] != 0) {
+				int t = table[i] - 1;
+				if (hashes[t] == hash && equals(t, buffer, length)) {
+					return t;
+				}
+				i = (i + 1) & mask;
+			}
+			if (!addNew) {
+				return -1;
+			}
+
+			if (size == hashes.length) {
+				hashes = Arrays.copyOf(hashes, size * 2);
+				starts = Arrays.copyOf(starts, size * 2 + 1);
+			}
+			if (numChars + length > chars.length) {
+				chars = Arrays.copyOf(chars, Math.max(numChars + length, chars.length * 2));
+			}
+			System.arraycopy(buffer, 0, chars, numChars, length);
+			numChars += length;
+			hashes[size] = hash;
+			starts[size + 1] = numChars;
+			table[i] = size + 1;
+			size++;
+			if (2 * size > table.length) {
+				rehash();
+			}
+			return size - 1;
+		}
+
+		private boolean equals(int t, char[] buffer, int length) {
+			if (starts[t + 1] - starts[t] != length) {
+				return false;
+			}
+			for (int c = 0; c < length; c++) {
+				if (chars[starts[t] + c] != buffer[c]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void rehash() {
+			table = new int[table.length * 2];
+			int mask = table.length - 1;
+			for (int t = 0; t < size; t++) {
+				int i = (int) SimHash.mix(hashes[t]) & mask;
+				while (table[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				table[i] = t + 1;
+			}
+		}
+
+		long getNumBytes() {
+			return 2L * chars.length + 4L * starts.length + 4L * hashes.length + 4L * table.length;
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Keeps the n most similar pairs that are passed to it, in a bounded min-heap of primitive arrays.
+ * Ties on similarity are broken on the pair ids, the pair with the smaller (id1, id2) is kept.
+ */
+public class TopPairs implements PairSink {
+
+	private final long[] pairs;
+	private final double[] similarities;
+	private int size;
+
+	/**
+	 * @param n the number of pairs to keep
+	 */
+	public TopPairs(int n) {
+		pairs = new long[n];
+		similarities = new double[n];
+	}
+
+	@Override
+	public void accept(int id1, int id2, double similarity) {
+		long pair = SimilarPairList.pack(id1, id2);
+		if (size < pairs.length) {
+			pairs[size] = pair;
+			similarities[size] = similarity;
+			siftUp(size++);
+		}else if (size > 0 && better(pair, similarity, 0)) {
+			pairs[0] = pair;
+			similarities[0] = similarity;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	 * Write the kept pairs on decreasing similarity. The heap is emptied.
+	 */
+	public void writeTo(PairSink sink) {
+		// heap sort: repeatedly move the least similar pair to the end
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		for (int i = 0; i < size; i++) {
+			sink.accept((int) (pairs[i] >>> 32), (int) pairs[i], similarities[i]);
+		}
+		size = 0;
+	}
+
+	/**
+	 * Returns true if the given pair is more similar than the pair at heap position i.
+	 */
+	private boolean better(long pair, double similarity, int i) {
+		if (similarity != similarities[i]) {
+			return similarity > similarities[i];
+		}
+		return pair < pairs[i];
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!better(pairs[parent], similarities[parent], i)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int end) {
+		while (true) {
+			int least = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < end && better(pairs[least], similarities[least], left)) {
+				least = left;
+			}
+			if (right < end && better(pairs[least], similarities[least], right)) {
+				least = right;
+			}
+			if (least == i) {
+				return;
+			}
+			swap(i, least);
+			i = least;
+		}
+	}
+
+	private void swap(int i, int j) {
+		long p = pairs[i];
+		pairs[i] = pairs[j];
+		pairs[j] = p;
+		double s = similarities[i];
+		similarities[i] = similarities[j];
+		similarities[j] = s;
+	}
+
+}